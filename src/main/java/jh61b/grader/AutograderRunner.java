@@ -2,6 +2,9 @@ package jh61b.grader;
 
 import static org.junit.platform.engine.discovery.DiscoverySelectors.selectClass;
 
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
@@ -22,10 +25,16 @@ public class AutograderRunner {
 
     private OutputFormat outputFormat = OutputFormat.PLAINTEXT;
     private String outfile = null;
+    private String outdir = ".";
+    private boolean streamResults = false;
+    private boolean journalResults = false;
+    private int parallelism = 1;
     private List<String> tags;
+    private List<String> submissions;
 
     public AutograderRunner(String[] args) {
         tags = new ArrayList<String>();
+        submissions = new ArrayList<String>();
         parseArgs(args);
     }
 
@@ -41,21 +50,40 @@ public class AutograderRunner {
                 case "--outfile":
                     outfile = args[++i];
                     break;
+                case "--stream":
+                    streamResults = true;
+                    break;
+                case "--journal":
+                    journalResults = true;
+                    break;
+                case "--outdir":
+                    outdir = args[++i];
+                    break;
+                case "--submission":
+                    submissions.add(args[++i]);
+                    break;
+                case "--parallel":
+                    parallelism = Integer.parseInt(args[++i]);
+                    break;
                 case "--tag-expr":
                     tags.add(args[++i]);
+                    break;
             }
         }
     }
 
+    /**
+     * Runs the tests selected by REQUEST, reporting results in the configured output format.
+     * <p>
+     * The listeners route print output per test thread, so this is safe to use with requests
+     * that enable JUnit Jupiter parallel execution (see {@link #configureParallelism}).
+     */
     public void startWithLauncher(LauncherDiscoveryRequest request) {
         // JUnit engines are added and present by default
         LauncherConfig.Builder launcherConfigBuilder = LauncherConfig.builder();
         if (outputFormat == OutputFormat.JSON) {
-            GradedTestListenerJSON listener = new GradedTestListenerJSON();
-            if (outfile != null) {
-                listener.setResultPath(Paths.get(outfile));
-            }
-            launcherConfigBuilder.addTestExecutionListeners(listener);
+            launcherConfigBuilder.addTestExecutionListeners(
+                createJSONListener(outfile == null ? null : Paths.get(outfile)));
         } else {
             launcherConfigBuilder.addTestExecutionListeners(new GradedTestListenerHumanReadable());
         }
@@ -66,17 +94,105 @@ public class AutograderRunner {
         }
     }
 
+    /**
+     * Returns a JSON listener that writes to RESULTPATH, or to stdout if RESULTPATH is null.
+     */
+    private GradedTestListenerJSON createJSONListener(Path resultPath) {
+        GradedTestListenerJSON listener = new GradedTestListenerJSON();
+        listener.setResultPath(resultPath);
+        listener.setStreaming(streamResults);
+        listener.setJournaling(journalResults);
+        return listener;
+    }
+
     /**
      * Simple test discovery by running all tests in provided class.
      * @param testClass class containing tests to run
      */
     private void start(Class<?> testClass) {
+        startWithLauncher(buildRequest(testClass));
+    }
+
+    private LauncherDiscoveryRequest buildRequest(Class<?> testClass) {
         LauncherDiscoveryRequestBuilder builder = LauncherDiscoveryRequestBuilder.request()
             .selectors(selectClass(testClass));
         if (!tags.isEmpty()) {
             builder.filters(TagFilter.includeTags(tags));
         }
-        startWithLauncher(builder.build());
+        configureParallelism(builder);
+        return builder.build();
+    }
+
+    /**
+     * Grades every <code>--submission</code> with the tests in the class named TESTCLASSNAME,
+     * reusing a single launcher session. Each submission (a directory of class files or a jar)
+     * is loaded together with TESTSLOCATION, see {@link #grade}. Results are written as JSON
+     * to <code>--outdir</code>, one file per submission.
+     */
+    private void startBatch(String testClassName, URL testsLocation) {
+        try (LauncherSession session = LauncherFactory.openSession()) {
+            Launcher launcher = session.getLauncher();
+            for (String submission : submissions) {
+                Path submissionPath = Paths.get(submission).toAbsolutePath();
+                try {
+                    grade(launcher, testClassName,
+                        new URL[]{submissionPath.toUri().toURL(), testsLocation},
+                        Paths.get(outdir, resultFileName(submissionPath)));
+                } catch (IOException | ClassNotFoundException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the tests in the class named TESTCLASSNAME on LAUNCHER and writes the results as JSON
+     * to RESULTPATH. The test class and everything it uses are loaded from CLASSPATH in a fresh
+     * {@link SubmissionClassLoader}, so static state and student classes never leak between
+     * calls, while jh61b, JUnit and Gson are shared with this JVM.
+     */
+    void grade(Launcher launcher, String testClassName, URL[] classpath, Path resultPath)
+            throws IOException, ClassNotFoundException {
+        ClassLoader shared = AutograderRunner.class.getClassLoader();
+        ClassLoader previous = Thread.currentThread().getContextClassLoader();
+        try (SubmissionClassLoader loader = new SubmissionClassLoader(classpath, shared)) {
+            Thread.currentThread().setContextClassLoader(loader);
+            Class<?> testClass = Class.forName(testClassName, false, loader);
+
+            launcher.execute(buildRequest(testClass), createJSONListener(resultPath));
+        } finally {
+            Thread.currentThread().setContextClassLoader(previous);
+        }
+    }
+
+    /**
+     * Returns the name of the results file for the submission at SUBMISSIONPATH,
+     * e.g. <code>alice.json</code> for <code>submissions/alice.jar</code>.
+     */
+    private static String resultFileName(Path submissionPath) {
+        String name = submissionPath.getFileName().toString();
+        if (name.endsWith(".jar")) {
+            name = name.substring(0, name.length() - ".jar".length());
+        }
+        return name + ".json";
+    }
+
+    /**
+     * Enables concurrent execution of test methods on <code>--parallel</code> threads.
+     * Only JUnit Jupiter tests run concurrently; JUnit 4 tests still run one at a time.
+     * Does nothing unless more than one thread was requested.
+     * @param builder request builder to add the JUnit configuration parameters to
+     */
+    public void configureParallelism(LauncherDiscoveryRequestBuilder builder) {
+        if (parallelism <= 1) {
+            return;
+        }
+        builder.configurationParameter("junit.jupiter.execution.parallel.enabled", "true")
+            .configurationParameter("junit.jupiter.execution.parallel.mode.default", "concurrent")
+            .configurationParameter("junit.jupiter.execution.parallel.mode.classes.default", "concurrent")
+            .configurationParameter("junit.jupiter.execution.parallel.config.strategy", "fixed")
+            .configurationParameter("junit.jupiter.execution.parallel.config.fixed.parallelism",
+                Integer.toString(parallelism));
     }
 
     public static void run(String[] args) {
@@ -115,4 +231,36 @@ public class AutograderRunner {
             e.printStackTrace();
         }
     }
+
+    public static void runBatch(String[] args) {
+        runBatch(args, 1);
+    }
+
+    /**
+     * Grade many submissions in this JVM with the specified command line arguments.
+     * <p>
+     * Like {@link #run(String[], int)}, the test class is the class whose main method called
+     * this method. Each submission is given with <code>--submission path</code> (repeatable) and
+     * results are written to <code>--outdir</code> as JSON:
+     * <p>
+     * <pre>
+     * java -cp grader.jar:tests AGTest --submission subs/alice --submission subs/bob.jar --outdir results
+     * </pre>
+     * <p>
+     * The test class is reloaded for every submission from the location it was loaded from,
+     * so submissions must not contain a copy of it.
+     */
+    public static void runBatch(String[] args, int calls) {
+        AutograderRunner runner = new AutograderRunner(args);
+        // 1 for `getStackTrace`, 1 for `runBatch(String[], int)`
+        StackTraceElement[] stackTraceElements = Thread.currentThread().getStackTrace();
+        String className = stackTraceElements[2 + calls].getClassName();
+        try {
+            Class<?> testClass = Class.forName(className);
+            URL testsLocation = testClass.getProtectionDomain().getCodeSource().getLocation();
+            runner.startBatch(className, testsLocation);
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+    }
 }
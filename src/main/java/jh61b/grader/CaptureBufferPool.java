@@ -0,0 +1,42 @@
+package jh61b.grader;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * CaptureBufferPool hands out {@link HeadTailOutputStream}s and takes them back once a test's
+ * output has been copied out, so that suites with thousands of tests do not allocate a new
+ * buffer for every one of them. Buffers are pooled by size, since tests may ask for different
+ * output lengths. The pool never holds more buffers than were in use at the same time.
+ */
+class CaptureBufferPool {
+    private final Map<Integer, Queue<HeadTailOutputStream>> freeBuffers = new ConcurrentHashMap<>();
+
+    /**
+     * Returns an empty buffer that keeps at most MAXSIZE bytes.
+     */
+    HeadTailOutputStream acquire(int maxSize) {
+        HeadTailOutputStream buffer = freeBuffers(maxSize).poll();
+        if (buffer == null) {
+            return new HeadTailOutputStream(maxSize);
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns BUFFER to the pool once its contents have been copied out. Tests must write to
+     * BUFFER only through {@link HeadTailOutputStream#currentGeneration()}, so that threads
+     * they leave behind cannot write into the output of the next test that acquires it.
+     */
+    void release(HeadTailOutputStream buffer) {
+        // From here on, views of the previous test drop what they are given.
+        buffer.reset();
+        freeBuffers(buffer.getMaxSize()).offer(buffer);
+    }
+
+    private Queue<HeadTailOutputStream> freeBuffers(int maxSize) {
+        return freeBuffers.computeIfAbsent(maxSize, size -> new ConcurrentLinkedQueue<>());
+    }
+}
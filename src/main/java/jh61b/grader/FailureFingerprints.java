@@ -0,0 +1,22 @@
+package jh61b.grader;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * FailureFingerprints remembers which test first failed in each way during one test run, so that
+ * tests failing the same way (typically invocations of one parameterized test) can refer to it
+ * instead of repeating the same stack trace. See
+ * {@link JUnitUtilities#throwableToString(Throwable, FailureFingerprints, String)}.
+ */
+public class FailureFingerprints {
+    private final Map<String, String> firstTests = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the label of the first test that failed with FINGERPRINT, or null if there is none
+     * yet, in which case the test labeled TESTLABEL becomes the first.
+     */
+    String firstTestWith(String fingerprint, String testLabel) {
+        return firstTests.putIfAbsent(fingerprint, testLabel);
+    }
+}
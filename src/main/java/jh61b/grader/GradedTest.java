@@ -5,16 +5,25 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+import org.junit.jupiter.api.extension.ExtendWith;
+
 /**
  * The <code>GradedTest</code> annotation allows you to specify optional parameters:
  * <li><code>name</code>: String that specifies the name of the test.</li>
  * <li><code>number</code>: String that specifies the number of the test.</li>
  * <li><code>max_score</code>: Double that specifies the number of points that the test is worth.</li>
- * <li><code>max_output_length</code>: bytes of output to display before it's truncated</li>
+ * <li><code>max_output_length</code>: bytes of output to display; longer output keeps its first and last halves</li>
+ * <li><code>timeout_ms</code>: milliseconds the test may run before it is abandoned and scored zero; 0 for no limit.
+ * The test is interrupted, but Java cannot stop a thread that ignores interrupts, so a test stuck in a
+ * loop keeps a core busy until the JVM exits. Later timing assertions of the same submission then
+ * fail right away, and results note the running threads as <code>runaway_test_threads</code>
+ * in their extra_data.</li>
  * </ul>
  */
 @Retention(RetentionPolicy.RUNTIME)
 @Target({ElementType.METHOD})
+// Enforces timeout_ms on JUnit Jupiter tests
+@ExtendWith(GradedTestTimeoutExtension.class)
 public @interface GradedTest {
     String DEFAULT_NAME = "UNNAMED_JH61B_TEST";
     String name() default DEFAULT_NAME;
@@ -26,4 +35,6 @@ public @interface GradedTest {
     int max_output_length() default 2000;
 
     boolean suppress_output() default false;
+
+    long timeout_ms() default 0;
 }
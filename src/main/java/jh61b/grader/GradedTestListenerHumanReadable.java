@@ -9,9 +9,12 @@ import static org.junit.platform.commons.support.AnnotationSupport.findAnnotatio
 import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.junit.platform.engine.TestExecutionResult;
 import org.junit.platform.engine.TestSource;
+import org.junit.platform.engine.reporting.ReportEntry;
 import org.junit.platform.engine.support.descriptor.MethodSource;
 import org.junit.platform.launcher.TestExecutionListener;
 import org.junit.platform.launcher.TestIdentifier;
@@ -20,11 +23,17 @@ import org.junit.platform.launcher.TestPlan;
 
 public class GradedTestListenerHumanReadable implements TestExecutionListener {
 
-    /* Current test result. Created at the beginning of every test, completed at the
-       end of every test. */
-    private static TestResult currentTestResult;
+    /* Results of running tests, keyed by unique ID. Created at the beginning of every test,
+       completed at the end of every test. Tests may run concurrently. */
+    private final Map<String, TestResult> runningTests = new ConcurrentHashMap<>();
+    /* Resource usage of running tests, and usage published by tests that ran on a thread of their own. */
+    private final Map<String, ResourceUsage> runningTestUsage = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, String>> reportedUsage = new ConcurrentHashMap<>();
+    /* Ways in which tests failed so far, so that repeated failures can refer to the first one. */
+    private FailureFingerprints failures = new FailureFingerprints();
     private int testsRun;
     private int testsFailed;
+    private int testsInconclusive;
     private double totalScore = 0.0;
     private double maxScore = 0.0;
 
@@ -91,13 +100,18 @@ public class GradedTestListenerHumanReadable implements TestExecutionListener {
     public void testPlanExecutionStarted(TestPlan testPlan) {
         testsRun = 0;
         testsFailed = 0;
+        testsInconclusive = 0;
+        failures = new FailureFingerprints();
     }
 
     /* Code to run at the end of test run. */
     @Override
     public void testPlanExecutionFinished(TestPlan testPlan) {
-        int numPassed = testsRun - testsFailed;
+        int numPassed = testsRun - testsFailed - testsInconclusive;
         System.out.printf("Passed: %d/%d tests.%n", numPassed, testsRun);
+        if (testsInconclusive > 0) {
+            System.out.printf("Inconclusive: %d tests, given full credit.%n", testsInconclusive);
+        }
         System.out.printf("Score: %.3f/%.3f%n", totalScore, maxScore);
     }
 
@@ -115,7 +129,7 @@ public class GradedTestListenerHumanReadable implements TestExecutionListener {
         return findAnnotation(testMethodSource, GradedTest.class).orElse(null);
     }
 
-    public void executionStarted(TestIdentifier testIdentifier) {
+    public synchronized void executionStarted(TestIdentifier testIdentifier) {
         GradedTest gradedTest = getGradedTestMethod(testIdentifier);
         if (gradedTest == null) {
             return;
@@ -135,7 +149,8 @@ public class GradedTestListenerHumanReadable implements TestExecutionListener {
             }
 
             /* Capture StdOut (both ours and theirs) so that we can relay it to the students. */
-            currentTestResult = new TestResult(testName, testNumber, testMaxScore);
+            TestResult currentTestResult = new TestResult(testName, testNumber, testMaxScore);
+            runningTests.put(testIdentifier.getUniqueId(), currentTestResult);
 
             /* By default every test passes. */
             currentTestResult.setScore(testMaxScore);
@@ -145,13 +160,21 @@ public class GradedTestListenerHumanReadable implements TestExecutionListener {
 
             maxScore += testMaxScore;
             testsRun++;
+            runningTestUsage.put(testIdentifier.getUniqueId(), ResourceUsage.start());
         } catch (IllegalAccessException | InvocationTargetException e) {
             throw new RuntimeException(e);
         }
     }
 
     @Override
-    public void executionFinished(TestIdentifier testIdentifier, TestExecutionResult testExecutionResult) {
+    public void reportingEntryPublished(TestIdentifier testIdentifier, ReportEntry entry) {
+        if (ResourceUsage.isReportEntry(entry.getKeyValuePairs())) {
+            reportedUsage.put(testIdentifier.getUniqueId(), entry.getKeyValuePairs());
+        }
+    }
+
+    @Override
+    public synchronized void executionFinished(TestIdentifier testIdentifier, TestExecutionResult testExecutionResult) {
         if (testIdentifier.isContainer()) {
             if (testExecutionResult.getThrowable().isEmpty()) {
                 return;
@@ -163,20 +186,39 @@ public class GradedTestListenerHumanReadable implements TestExecutionListener {
         }
 
         GradedTest gradedTest = getGradedTestMethod(testIdentifier);
-        if (gradedTest == null) {
+        TestResult currentTestResult = runningTests.remove(testIdentifier.getUniqueId());
+        ResourceUsage usage = runningTestUsage.remove(testIdentifier.getUniqueId());
+        Map<String, String> usageOfTestThread = reportedUsage.remove(testIdentifier.getUniqueId());
+        if (gradedTest == null || currentTestResult == null) {
             return;
         }
+        if (usage != null) {
+            usage.recordIn(currentTestResult, usageOfTestThread);
+        }
         try {
             // Check if test failed
-            if (testExecutionResult.getStatus() == TestExecutionResult.Status.FAILED) {
+            if (testExecutionResult.getStatus() == TestExecutionResult.Status.FAILED
+                    && testExecutionResult.getThrowable().orElse(null) instanceof InconclusiveTestException) {
+                // Keeps its full score, since the submission is not to blame
+                currentTestResult.setInconclusive(true);
+                System.out.println(InconclusiveTestException.describe(
+                        (InconclusiveTestException) testExecutionResult.getThrowable().get()));
+                testsInconclusive++;
+                totalScore += getTestMaxScore(gradedTest);
+            } else if (testExecutionResult.getStatus() == TestExecutionResult.Status.FAILED) {
                 Throwable cause = testExecutionResult.getThrowable().orElse(null);
                 currentTestResult.setScore(0);
                 System.out.println("Test Failed!");
                 if (cause != null) {
-                    System.out.println(JUnitUtilities.throwableToString(cause));
+                    String testLabel = String.format("test %s: %s", currentTestResult.number, currentTestResult.name);
+                    System.out.println(JUnitUtilities.throwableToString(cause, failures, testLabel));
                 }
                 testsFailed++;
             } else {
+                if (testExecutionResult.getStatus() == TestExecutionResult.Status.ABORTED) {
+                    Throwable cause = testExecutionResult.getThrowable().orElse(null);
+                    System.out.println("Test Aborted: " + (cause == null ? "" : cause.getMessage()));
+                }
                 totalScore += getTestMaxScore(gradedTest);
             }
         } catch (IllegalAccessException | InvocationTargetException e) {
@@ -184,6 +226,12 @@ public class GradedTestListenerHumanReadable implements TestExecutionListener {
         }
 
         System.out.printf("==> Score: %.3f / %.3f%n", currentTestResult.score, currentTestResult.maxScore);
+        System.out.println("==> Resources: " + currentTestResult.resourceUsageString());
+        int runawayThreads = GradedTestTimeoutExtension.runawayThreads().size();
+        if (runawayThreads > 0) {
+            currentTestResult.setRunawayThreads(runawayThreads);
+            System.out.println("==> Warning: " + runawayThreads + " timed-out test thread(s) still running, timings are unreliable");
+        }
         System.out.println("-".repeat(80));
     }
 }
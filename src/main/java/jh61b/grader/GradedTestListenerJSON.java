@@ -2,17 +2,25 @@ package jh61b.grader;
 
 import static org.junit.platform.commons.support.AnnotationSupport.findAnnotation;
 
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.lang.reflect.Method;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
 import org.junit.platform.engine.TestExecutionResult;
 import org.junit.platform.engine.TestSource;
+import org.junit.platform.engine.reporting.ReportEntry;
 import org.junit.platform.engine.support.descriptor.MethodSource;
 import org.junit.platform.launcher.TestExecutionListener;
 import org.junit.platform.launcher.TestIdentifier;
@@ -22,15 +30,21 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 
 public class GradedTestListenerJSON implements TestExecutionListener {
-    // Storage of print output that has been intercepted.
-    private CappedByteArrayOutputStream capturedData;
-
     // Tracks original stdout
     private final PrintStream STDOUT = System.out;
     private final PrintStream STDERR = System.err;
 
-    // Current test result. Created at the beginning of every test, completed at the end of every test.
-    private TestResult currentTestResult;
+    // Routes print output of each test thread to the buffer of the test running on it.
+    private ThreadRoutedOutputStream capture;
+
+    // Ways in which tests failed so far, so that repeated failures can refer to the first one.
+    private FailureFingerprints failures;
+
+    // Reusable buffers for the print output of each test.
+    private final CaptureBufferPool capturePool = new CaptureBufferPool();
+
+    // Tests that have started but not finished, keyed by unique ID. Tests may run concurrently.
+    private final Map<String, RunningTest> runningTests = new ConcurrentHashMap<>();
 
     // All test results.
     private List<TestResult> allTestResults;
@@ -38,16 +52,78 @@ public class GradedTestListenerJSON implements TestExecutionListener {
     // File of all test results.
     private Path resultPath;
 
+    // If true, each test result is written out as soon as the test finishes instead of at the end.
+    private boolean streaming = false;
+
+    // Writer of the streamed results; null unless streaming and the result file could be opened.
+    private volatile JsonWriter resultWriter;
+
+    // If true, finished test results are journaled so they survive the JVM dying, see ResultJournal.
+    private volatile boolean journaling = false;
+
+    // Guards journal and journalShutdownHook, which test threads and the shutdown hook both use.
+    private final Object journalLock = new Object();
+
+    // Journal of the finished test results; only used when journaling to a result file.
+    private ResultJournal journal;
+
+    // Writes the results from the journal if the JVM shuts down before the test plan finishes.
+    private Thread journalShutdownHook;
+
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
     // Test run start time.
     private long startTime;
 
+    /**
+     * Result, intercepted print output and resource usage of a test that is currently running.
+     */
+    private static class RunningTest {
+        private final TestResult result;
+        private final HeadTailOutputStream capturedData;
+        private final ResourceUsage usage;
+        // Usage published by the test if it ran on a thread of its own.
+        private volatile Map<String, String> reportedUsage;
+
+        RunningTest(TestResult result, HeadTailOutputStream capturedData, ResourceUsage usage) {
+            this.result = result;
+            this.capturedData = capturedData;
+            this.usage = usage;
+        }
+    }
+
     public void setResultPath(Path path) {
         this.resultPath = path;
     }
 
+    /**
+     * Streams each test result to the result file as soon as the test finishes, so that memory use
+     * does not grow with the number of tests. The streamed JSON has the same content as the
+     * buffered one, but <code>execution_time</code> comes after <code>tests</code>.
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Journals test results as they finish instead of keeping them in memory, and writes the
+     * result file from the journal at the end. If the JVM exits early (e.g. through
+     * <code>System.exit</code>) the results of the finished tests are still written, and if it is
+     * killed they can be recovered with {@link ResultJournal#main}. Only applies when a result
+     * path is set, and takes precedence over streaming.
+     */
+    public void setJournaling(boolean journaling) {
+        this.journaling = journaling;
+    }
+
     @Override
     public void testPlanExecutionStarted(TestPlan testPlan) {
-        allTestResults = new ArrayList<>();
+        allTestResults = Collections.synchronizedList(new ArrayList<>());
+        runningTests.clear();
+        failures = new FailureFingerprints();
+        // Threads without a route, e.g. ones started by a test, print to stderr, since the results may go to stdout.
+        capture = new ThreadRoutedOutputStream(STDERR);
+        System.setOut(new PrintStream(capture));
 
         // http://stackoverflow.com/questions/5936562/disable-system-err
 //        System.setErr(new PrintStream(new OutputStream() {
@@ -55,13 +131,26 @@ public class GradedTestListenerJSON implements TestExecutionListener {
 //            }
 //        }));
 
+        resultWriter = null;
         try {
-            if (resultPath != null) {
+            if (journaling && resultPath != null) {
+                startJournal();
+            } else if (streaming) {
+                startStream();
+            } else if (resultPath != null) {
                 // Clear file
                 Files.write(resultPath, new byte[0]);
             }
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+        } catch (IOException | RuntimeException e) {
+            // Exceptions thrown from here are swallowed by the launcher, so keep the results in
+            // memory instead and try to write them at the end.
+            STDERR.println("Warning: could not open " + resultPath + ", keeping results in memory");
+            e.printStackTrace(STDERR);
+            synchronized (journalLock) {
+                journal = null;
+                journalShutdownHook = null;
+            }
+            resultWriter = null;
         }
 
         startTime = System.currentTimeMillis();
@@ -71,17 +160,51 @@ public class GradedTestListenerJSON implements TestExecutionListener {
     public void testPlanExecutionFinished(TestPlan testPlan) {
         long elapsed = System.currentTimeMillis() - startTime;
 
+        // Set while journaling, even if the shutdown hook has finished the journal already.
+        Thread shutdownHook;
+        synchronized (journalLock) {
+            shutdownHook = journalShutdownHook;
+            journalShutdownHook = null;
+        }
+        if (shutdownHook != null) {
+            System.setOut(STDOUT);
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // The JVM is already shutting down (e.g. System.exit in the last test), and the
+                // hook may be finishing the journal already; whichever comes first writes the results.
+            }
+            try {
+                finishJournal(elapsed, null);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
+
+        if (resultWriter != null) {
+            System.setOut(STDOUT);
+            try {
+                finishStream(elapsed);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
+
         JsonObject json = new JsonObject();
         json.addProperty("execution_time", elapsed);
 
         JsonArray tests = new JsonArray();
-        for (TestResult tr : allTestResults) {
-            tests.add(tr.toJSON());
+        synchronized (allTestResults) {
+            for (TestResult tr : allTestResults) {
+                tests.add(tr.toJSON());
+            }
         }
         json.add("tests", tests);
         System.setOut(STDOUT);
 
-        String pretty = (new GsonBuilder().setPrettyPrinting().create()).toJson(json);
+        String pretty = gson.toJson(json);
         if (resultPath == null) {
             STDOUT.println(pretty);
         } else {
@@ -93,20 +216,118 @@ public class GradedTestListenerJSON implements TestExecutionListener {
         }
     }
 
+    /**
+     * Opens the result file (or stdout) and writes everything up to the first test result.
+     */
+    private void startStream() throws IOException {
+        if (resultPath == null) {
+            resultWriter = new JsonWriter(new OutputStreamWriter(STDOUT, StandardCharsets.UTF_8));
+        } else {
+            resultWriter = new JsonWriter(Files.newBufferedWriter(resultPath, StandardCharsets.UTF_8));
+        }
+        resultWriter.setIndent("  ");
+        resultWriter.beginObject();
+        resultWriter.name("tests");
+        resultWriter.beginArray();
+    }
+
+    /**
+     * Writes everything after the last test result and closes the result file.
+     */
+    private void finishStream(long elapsed) throws IOException {
+        synchronized (resultWriter) {
+            resultWriter.endArray();
+            resultWriter.name("execution_time").value(elapsed);
+            resultWriter.endObject();
+            if (resultPath == null) {
+                resultWriter.flush();
+                STDOUT.println();
+            } else {
+                resultWriter.close();
+            }
+        }
+    }
+
+    /**
+     * Starts a new journal for the result file and makes sure it is turned into the result file
+     * even if the JVM shuts down before the test plan finishes.
+     */
+    private void startJournal() throws IOException {
+        // Until the journal is finished, the result file holds no results rather than stale ones.
+        Files.write(resultPath, new byte[0]);
+        Thread shutdownHook = new Thread(() -> {
+            try {
+                finishJournal(System.currentTimeMillis() - startTime,
+                        "Grading did not finish. Only the results of tests that completed are shown.");
+            } catch (IOException e) {
+                e.printStackTrace(STDERR);
+            }
+        });
+        synchronized (journalLock) {
+            journal = new ResultJournal(resultPath);
+            journalShutdownHook = shutdownHook;
+        }
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Closes the journal and atomically replaces the result file with the journaled results.
+     * Does nothing if the journal was already finished, so the end of the test plan and the
+     * shutdown hook can both call it.
+     */
+    private void finishJournal(long elapsed, String output) throws IOException {
+        synchronized (journalLock) {
+            if (journal == null) {
+                return;
+            }
+            ResultJournal finished = journal;
+            journal = null;
+            finished.close();
+            ResultJournal.writeResults(resultPath, elapsed, output);
+        }
+    }
+
+    /**
+     * Records a finished test result, writing it out right away when streaming or journaling.
+     */
+    private void addTestResult(TestResult testResult) {
+        synchronized (journalLock) {
+            if (journal != null) {
+                try {
+                    journal.append(testResult);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                return;
+            }
+        }
+        JsonWriter writer = resultWriter;
+        if (writer == null) {
+            allTestResults.add(testResult);
+            return;
+        }
+        synchronized (writer) {
+            gson.toJson(testResult.toJSON(), writer);
+            try {
+                // A crash after this test still leaves its result in the file.
+                writer.flush();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
     public void executionStarted(TestIdentifier testIdentifier) {
         if (testIdentifier.isContainer()) {
-            currentTestResult = null;
             return;
         }
 
         TestSource testSource = testIdentifier.getSource().orElse(null);
         if (testSource == null) {
             STDERR.println("Warning: " + testIdentifier.getDisplayName() + " has no test source!");
-            currentTestResult = null;
             return;
         } else if (!(testSource instanceof MethodSource)) {
             STDERR.println("Warning: " + testIdentifier.getDisplayName() + " is not a method source!");
-            currentTestResult = null;
             return;
         }
 
@@ -114,7 +335,6 @@ public class GradedTestListenerJSON implements TestExecutionListener {
         GradedTest gradedTest = findAnnotation(testMethodSource, GradedTest.class).orElse(null);
         if (gradedTest == null) {
             STDERR.println("Warning: " + testIdentifier.getDisplayName() + " is missing @GradedTest annotation!");
-            currentTestResult = null;
             return;
         }
 
@@ -133,36 +353,71 @@ public class GradedTestListenerJSON implements TestExecutionListener {
             number += invocation;
         }
 
-        currentTestResult = new TestResult(name, number, gradedTest.max_score(), gradedTest.suppress_output());
+        TestResult testResult = new TestResult(name, number, gradedTest.max_score(), gradedTest.suppress_output());
 
         // Full score unless there's an explicit failure
-        currentTestResult.setScore(gradedTest.max_score());
+        testResult.setScore(gradedTest.max_score());
 
         // Capture stdout so that we can relay it to the students.
-        capturedData = new CappedByteArrayOutputStream(gradedTest.max_output_length());
-        System.setOut(new PrintStream(capturedData));
+        // Keeps the start and the end of long output; the last lines before a failure are usually the useful ones.
+        HeadTailOutputStream capturedData = capturePool.acquire(gradedTest.max_output_length());
+        // Routed through a view, so that threads the test leaves behind stop writing once the buffer is reused.
+        capture.route(capturedData.currentGeneration());
+        runningTests.put(testIdentifier.getUniqueId(), new RunningTest(testResult, capturedData, ResourceUsage.start()));
+    }
+
+    @Override
+    public void reportingEntryPublished(TestIdentifier testIdentifier, ReportEntry entry) {
+        RunningTest runningTest = runningTests.get(testIdentifier.getUniqueId());
+        if (runningTest != null && ResourceUsage.isReportEntry(entry.getKeyValuePairs())) {
+            runningTest.reportedUsage = entry.getKeyValuePairs();
+        }
     }
 
     @Override
     public void executionFinished(TestIdentifier testIdentifier, TestExecutionResult testExecutionResult) {
+        TestResult currentTestResult;
+        HeadTailOutputStream capturedData = null;
         if (testIdentifier.isContainer()) {
             if (testExecutionResult.getThrowable().isEmpty()) {
                 return;
             }
             currentTestResult = new TestResult("Test Container", "-", 0, false);
+        } else {
+            RunningTest runningTest = runningTests.remove(testIdentifier.getUniqueId());
+            if (runningTest == null) return;
+            runningTest.usage.recordIn(runningTest.result, runningTest.reportedUsage);
+            runningTest.result.setRunawayThreads(GradedTestTimeoutExtension.runawayThreads().size());
+            capture.unroute();
+            currentTestResult = runningTest.result;
+            capturedData = runningTest.capturedData;
         }
 
-        if (currentTestResult == null) return;
-
         boolean failed = false;
         // Check if test failed
-        if (testExecutionResult.getStatus() == TestExecutionResult.Status.FAILED) {
+        if (testExecutionResult.getStatus() == TestExecutionResult.Status.FAILED
+                && testExecutionResult.getThrowable().orElse(null) instanceof InconclusiveTestException) {
+            // Keeps its full score, since the submission is not to blame
+            currentTestResult.setInconclusive(true);
+            currentTestResult.addOutput(InconclusiveTestException.describe(
+                    (InconclusiveTestException) testExecutionResult.getThrowable().get()) + System.lineSeparator());
+            failed = true;
+        } else if (testExecutionResult.getStatus() == TestExecutionResult.Status.FAILED) {
             Throwable cause = testExecutionResult.getThrowable().orElse(null);
             currentTestResult.setScore(0);
             currentTestResult.addOutput("Test Failed!" + System.lineSeparator());
             currentTestResult.addOutput("-".repeat(12) + System.lineSeparator());
-            currentTestResult.addOutput(JUnitUtilities.throwableToString(cause));
+            if (testIdentifier.isContainer()) {
+                currentTestResult.addOutput(JUnitUtilities.throwableToString(cause));
+            } else {
+                String testLabel = String.format("test %s: %s", currentTestResult.number, currentTestResult.name);
+                currentTestResult.addOutput(JUnitUtilities.throwableToString(cause, failures, testLabel));
+            }
             failed = true;
+        } else if (testExecutionResult.getStatus() == TestExecutionResult.Status.ABORTED) {
+            // Aborted tests keep their score, but say why they did not run to the end.
+            Throwable cause = testExecutionResult.getThrowable().orElse(null);
+            currentTestResult.addOutput("Test Aborted: " + (cause == null ? "" : cause.getMessage()) + System.lineSeparator());
         }
 
         if (capturedData != null && capturedData.written()) {
@@ -170,11 +425,14 @@ public class GradedTestListenerJSON implements TestExecutionListener {
                 currentTestResult.addOutput(System.lineSeparator());
             }
             currentTestResult.addOutput("Output:\n");
+            // Contains a marker in place of any output that had to be dropped
             currentTestResult.addOutput(capturedData.toString());
-            if (capturedData.truncated() && capturedData.getMaxSize() > 0) {
-                currentTestResult.addOutput("\n... truncated due to excessive output!");
-            }
         }
-        allTestResults.add(currentTestResult);
+        // Threads of the test that are still running (e.g. after a timeout) write to an outdated
+        // view once the buffer is acquired again, so it can always be reused.
+        if (capturedData != null) {
+            capturePool.release(capturedData);
+        }
+        addTestResult(currentTestResult);
     }
 }
\ No newline at end of file
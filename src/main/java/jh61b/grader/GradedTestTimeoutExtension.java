@@ -0,0 +1,127 @@
+package jh61b.grader;
+
+import static org.junit.platform.commons.support.AnnotationSupport.findAnnotation;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.InvocationInterceptor;
+import org.junit.jupiter.api.extension.ReflectiveInvocationContext;
+
+/**
+ * GradedTestTimeoutExtension enforces the <code>timeout_ms</code> budget of {@link GradedTest}s.
+ * <p>
+ * A test with a budget runs on its own daemon thread while the JUnit thread acts as its watchdog.
+ * If the test is still running when the budget is spent, the watchdog interrupts it, abandons it
+ * and fails it with a {@link TimeoutError}, so the remaining tests still run. An abandoned thread
+ * that ignores the interrupt keeps running in the background until the JVM exits, and takes up a
+ * core while later tests run. Such threads are listed by {@link #runawayThreads()}: the listeners
+ * note them in each result, and the timing assertions of
+ * {@link jh61b.utils.RuntimeInstrumentation} refuse to time anything while they run.
+ * <p>
+ * The extension is registered on every {@link GradedTest} method by the annotation itself, so it
+ * applies however the tests are launched. It does not apply to JUnit 4 tests.
+ */
+public class GradedTestTimeoutExtension implements InvocationInterceptor {
+    /* How long to wait for an interrupted test to finish before abandoning it. */
+    private static final long INTERRUPT_GRACE_MS = 100;
+
+    /* Test threads that were abandoned while still running. */
+    private static final Set<Thread> RUNAWAY_THREADS =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    /**
+     * Failure reported for a test that ran over its budget. Its stack trace is that of the
+     * test thread at the moment the budget ran out, which shows where the test was stuck.
+     */
+    public static class TimeoutError extends AssertionError {
+        public TimeoutError(long timeoutMs, StackTraceElement[] stackTrace) {
+            super("Test timed out after " + timeoutMs + " ms");
+            setStackTrace(stackTrace);
+        }
+    }
+
+    @Override
+    public void interceptTestMethod(Invocation<Void> invocation,
+                                    ReflectiveInvocationContext<Method> invocationContext,
+                                    ExtensionContext extensionContext) throws Throwable {
+        proceedWithTimeout(invocation, invocationContext, extensionContext);
+    }
+
+    @Override
+    public void interceptTestTemplateMethod(Invocation<Void> invocation,
+                                            ReflectiveInvocationContext<Method> invocationContext,
+                                            ExtensionContext extensionContext) throws Throwable {
+        proceedWithTimeout(invocation, invocationContext, extensionContext);
+    }
+
+    private static void proceedWithTimeout(Invocation<Void> invocation,
+                                           ReflectiveInvocationContext<Method> invocationContext,
+                                           ExtensionContext extensionContext) throws Throwable {
+        GradedTest gradedTest = findAnnotation(invocationContext.getExecutable(), GradedTest.class).orElse(null);
+        if (gradedTest == null || gradedTest.timeout_ms() <= 0) {
+            invocation.proceed();
+            return;
+        }
+        long timeoutMs = gradedTest.timeout_ms();
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicReference<ResourceUsage> usage = new AtomicReference<>();
+        // The test thread prints into the output of the test, like the JUnit thread would.
+        Thread testThread = new Thread(ThreadRoutedOutputStream.withRoutesOf(() -> {
+            usage.set(ResourceUsage.start());
+            try {
+                invocation.proceed();
+            } catch (Throwable t) {
+                failure.set(t);
+            } finally {
+                usage.get().stop();
+            }
+        }), "jh61b-graded-test: " + extensionContext.getDisplayName());
+        testThread.setDaemon(true);
+        testThread.start();
+
+        testThread.join(timeoutMs);
+        if (testThread.isAlive()) {
+            StackTraceElement[] stackTrace = testThread.getStackTrace();
+            publishUsage(extensionContext, usage.get());
+            testThread.interrupt();
+            testThread.join(INTERRUPT_GRACE_MS);
+            if (testThread.isAlive()) {
+                RUNAWAY_THREADS.add(testThread);
+            }
+            throw new TimeoutError(timeoutMs, stackTrace);
+        }
+        publishUsage(extensionContext, usage.get());
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /**
+     * Returns the threads of tests that timed out and are still running despite the interrupt.
+     * Their context class loader is that of the test, e.g. the loader of its submission.
+     */
+    public static List<Thread> runawayThreads() {
+        synchronized (RUNAWAY_THREADS) {
+            RUNAWAY_THREADS.removeIf(thread -> !thread.isAlive());
+            return new ArrayList<>(RUNAWAY_THREADS);
+        }
+    }
+
+    /**
+     * Reports the resources used by the test thread, since the listener only sees the watchdog thread.
+     */
+    private static void publishUsage(ExtensionContext extensionContext, ResourceUsage usage) {
+        if (usage != null) {
+            extensionContext.publishReportEntry(usage.stop().toReportEntry());
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package jh61b.grader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.security.Permission;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.platform.launcher.Launcher;
+import org.junit.platform.launcher.LauncherSession;
+import org.junit.platform.launcher.core.LauncherFactory;
+
+/**
+ * GradingServer keeps one warm JVM alive and grades jobs sent to it over a local socket,
+ * so that each job pays for neither JVM startup nor JUnit engine discovery.
+ * <p>
+ * Each connection carries one job as a single line of four tab-separated fields:
+ * <pre>
+ * token \t testClassName \t submissionClasspath \t outputPath
+ * </pre>
+ * where the classpath uses the platform path separator and must contain both the test class
+ * and the submission, and outputPath is relative to the results directory. The server replies
+ * with <code>OK</code> once the JSON results have been written, or <code>ERROR message</code>.
+ * A line containing only <code>token \t QUIT</code> stops the server. Jobs are graded one at a
+ * time, since every job redirects {@link System#out}.
+ * <p>
+ * The server only listens on the loopback interface, where any local process can connect, so
+ * every request must start with the secret token read from <code>--token-file</code>. That file
+ * must be readable by its owner only. Results are only ever written inside
+ * <code>--results-dir</code>. A job that runs longer than <code>--job-timeout-ms</code>
+ * (10 minutes by default) is interrupted and reported as an error. Results of a job are
+ * written to a temporary file and only moved to outputPath if the job finished in time, so a
+ * timed-out job can never overwrite them later. Since jobs share {@link System#out} and the CPU,
+ * no further request is accepted until the thread of a timed-out job has exited; if it is still
+ * running after another <code>--job-timeout-ms</code>, the server stops, so that it can be
+ * restarted with a clean JVM. <code>System.exit</code> in graded code throws a SecurityException
+ * instead of stopping the server, where the JVM still allows a security manager to be installed.
+ * All other command line arguments (e.g. <code>--tag-expr</code>, <code>--parallel</code>) are
+ * applied to every job.
+ * <pre>
+ * java -cp grader.jar jh61b.grader.GradingServer --port 6161 --token-file ~/.grader-token --results-dir results
+ * </pre>
+ */
+public class GradingServer {
+    private static final String QUIT = "QUIT";
+
+    /* How long a client may take to send its request line. */
+    private static final int REQUEST_TIMEOUT_MS = 10_000;
+
+    /* How long to wait for an interrupted job to finish before abandoning it. */
+    private static final long INTERRUPT_GRACE_MS = 1000;
+
+    private final AutograderRunner runner;
+    private int port = 0;
+    private Path tokenFile;
+    private Path resultsDir;
+    private long jobTimeoutMs = 10 * 60 * 1000;
+
+    private byte[] token;
+    private Path realResultsDir;
+
+    /* Thread of a job that timed out but has not exited yet, or null, and where it writes its results. */
+    private Thread abandonedJob;
+    private Path abandonedResultPath;
+
+    public GradingServer(String[] args) {
+        runner = new AutograderRunner(args);
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "--token-file":
+                    tokenFile = Paths.get(args[++i]);
+                    break;
+                case "--results-dir":
+                    resultsDir = Paths.get(args[++i]);
+                    break;
+                case "--job-timeout-ms":
+                    jobTimeoutMs = Long.parseLong(args[++i]);
+                    break;
+            }
+        }
+        if (tokenFile == null || resultsDir == null) {
+            throw new IllegalArgumentException("GradingServer needs --token-file and --results-dir");
+        }
+    }
+
+    /**
+     * Accepts and grades jobs until a <code>QUIT</code> request arrives.
+     */
+    public void serve() throws IOException {
+        token = readToken(tokenFile);
+        Files.createDirectories(resultsDir);
+        realResultsDir = resultsDir.toRealPath();
+        trapExit();
+
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+             LauncherSession session = LauncherFactory.openSession()) {
+            System.out.println("Grading server listening on port " + server.getLocalPort());
+
+            Launcher launcher = session.getLauncher();
+            boolean running = true;
+            while (running) {
+                if (!awaitAbandonedJob()) {
+                    System.err.println("A timed-out job is still running " + jobTimeoutMs
+                            + " ms after its deadline; stopping the grading server so it can be restarted");
+                    ExitTrap.serverExiting = true;
+                    System.exit(1);
+                }
+                try (Socket client = server.accept()) {
+                    client.setSoTimeout(REQUEST_TIMEOUT_MS);
+                    running = handle(launcher, client);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            ExitTrap.serverExiting = true;
+        }
+    }
+
+    /**
+     * Grades the job sent by CLIENT and replies with its status.
+     * Returns false iff the client asked the server to stop.
+     */
+    private boolean handle(Launcher launcher, Socket client) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8), true);
+
+        String request;
+        try {
+            request = in.readLine();
+        } catch (SocketTimeoutException e) {
+            out.println("ERROR no request within " + REQUEST_TIMEOUT_MS + " ms");
+            return true;
+        }
+        if (request == null) {
+            return true;
+        }
+
+        String[] fields = request.split("\t");
+        if (!hasToken(fields[0])) {
+            out.println("ERROR invalid token");
+            return true;
+        }
+        if (fields.length == 2 && fields[1].trim().equals(QUIT)) {
+            out.println("OK");
+            return false;
+        }
+        if (fields.length != 4) {
+            out.println("ERROR expected token, testClassName, classpath and outputPath separated by tabs");
+            return true;
+        }
+
+        try {
+            String[] entries = fields[2].split(File.pathSeparator);
+            URL[] classpath = new URL[entries.length];
+            for (int i = 0; i < entries.length; i++) {
+                classpath[i] = Paths.get(entries[i]).toAbsolutePath().toUri().toURL();
+            }
+            Path resultPath = resultPath(fields[3]);
+            String error = gradeWithDeadline(launcher, fields[1], classpath, resultPath);
+            out.println(error == null ? "OK" : "ERROR " + error);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            out.println("ERROR " + e);
+        }
+        return true;
+    }
+
+    /**
+     * Waits for the thread of a timed-out job to exit, so that it cannot disturb the next job.
+     * Returns false if it is still running after another job timeout.
+     */
+    private boolean awaitAbandonedJob() {
+        if (abandonedJob == null) {
+            return true;
+        }
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        try {
+            abandonedJob.join(jobTimeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        if (abandonedJob.isAlive()) {
+            return false;
+        }
+        abandonedJob = null;
+        try {
+            Files.deleteIfExists(abandonedResultPath);
+        } catch (IOException e) {
+            System.err.println("Warning: could not delete " + abandonedResultPath + ": " + e);
+        }
+        return true;
+    }
+
+    /**
+     * Grades one job on a thread of its own. Returns null if it finished, or why it did not.
+     * The results are only moved to RESULTPATH if the job finished before the deadline.
+     * A job that is still running after the deadline is interrupted, and becomes the
+     * abandoned job that the next request has to wait for.
+     */
+    private String gradeWithDeadline(Launcher launcher, String testClassName, URL[] classpath, Path resultPath)
+            throws IOException {
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        Path partialResultPath = Files.createTempFile(realResultsDir, ".job-", ".json");
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread job = new Thread(() -> {
+            try {
+                runner.grade(launcher, testClassName, classpath, partialResultPath);
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        }, "jh61b-grading-job: " + testClassName);
+        job.setDaemon(true);
+        job.start();
+        try {
+            job.join(jobTimeoutMs);
+            if (job.isAlive()) {
+                job.interrupt();
+                job.join(INTERRUPT_GRACE_MS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // An abandoned job never gets to restore them itself.
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+
+        if (job.isAlive()) {
+            // Whatever the job writes from now on is never seen.
+            abandonedJob = job;
+            abandonedResultPath = partialResultPath;
+            return "job timed out after " + jobTimeoutMs + " ms";
+        }
+        if (failure.get() != null) {
+            Files.deleteIfExists(partialResultPath);
+            failure.get().printStackTrace();
+            return failure.get().toString();
+        }
+        Files.move(partialResultPath, resultPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return null;
+    }
+
+    /**
+     * Returns the path that OUTPUTPATH names inside the results directory. Fails if it is
+     * anywhere else, including through a symbolic link.
+     */
+    private Path resultPath(String outputPath) throws IOException {
+        Path resultPath = realResultsDir.resolve(outputPath).normalize();
+        if (!resultPath.startsWith(realResultsDir) || resultPath.equals(realResultsDir)) {
+            throw new IllegalArgumentException("outputPath must be inside the results directory: " + outputPath);
+        }
+        Files.createDirectories(resultPath.getParent());
+        if (!resultPath.getParent().toRealPath().startsWith(realResultsDir) || Files.isSymbolicLink(resultPath)) {
+            throw new IllegalArgumentException("outputPath must be inside the results directory: " + outputPath);
+        }
+        return resultPath;
+    }
+
+    private boolean hasToken(String requestToken) {
+        return MessageDigest.isEqual(token, requestToken.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the token in TOKENFILE, which must not be readable by anyone but its owner.
+     */
+    private static byte[] readToken(Path tokenFile) throws IOException {
+        PosixFileAttributeView posix = Files.getFileAttributeView(tokenFile, PosixFileAttributeView.class);
+        if (posix != null) {
+            Set<PosixFilePermission> permissions = posix.readAttributes().permissions();
+            if (!EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE).containsAll(permissions)) {
+                throw new IllegalArgumentException("Token file " + tokenFile + " must only be accessible by its owner (chmod 600)");
+            }
+        }
+        String token = new String(Files.readAllBytes(tokenFile), StandardCharsets.UTF_8).trim();
+        if (token.isEmpty()) {
+            throw new IllegalArgumentException("Token file " + tokenFile + " is empty");
+        }
+        return token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Makes <code>System.exit</code> throw a SecurityException, so that graded code cannot
+     * stop the server. Every other permission is granted.
+     */
+    @SuppressWarnings("removal")
+    private static void trapExit() {
+        try {
+            System.setSecurityManager(new ExitTrap());
+        } catch (UnsupportedOperationException | SecurityException e) {
+            System.err.println("Warning: System.exit in graded code will stop the grading server."
+                    + " Run with -Djava.security.manager=allow to prevent this.");
+        }
+    }
+
+    @SuppressWarnings("removal")
+    private static class ExitTrap extends SecurityManager {
+        private static volatile boolean serverExiting = false;
+
+        @Override
+        public void checkExit(int status) {
+            if (!serverExiting) {
+                throw new SecurityException("System.exit(" + status + ") is not allowed while grading");
+            }
+        }
+
+        @Override
+        public void checkPermission(Permission perm) {
+        }
+
+        @Override
+        public void checkPermission(Permission perm, Object context) {
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        new GradingServer(args).serve();
+    }
+}
@@ -0,0 +1,173 @@
+package jh61b.grader;
+
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * HeadTailOutputStream keeps the first and the last bytes written to it and drops everything
+ * in between, which is replaced by a marker when the output is read back.
+ * <p>
+ * The buffer is allocated once, at its full size, when the stream is created. The last bytes are
+ * kept in a ring buffer, so writing costs the same no matter how much output there is.
+ */
+public class HeadTailOutputStream extends OutputStream {
+    private final byte[] buffer;
+    private final int headSize;
+    private final int tailSize;
+
+    // Number of bytes in the head, i.e. buffer[0, headUsed).
+    private int headUsed = 0;
+    // Number of bytes written after the head was full. The tail ring is buffer[headSize, headSize + tailSize).
+    private long tailWritten = 0;
+    // Number of times the stream was reset, see currentGeneration().
+    private long generation = 0;
+
+    /**
+     * Creates a stream that keeps at most MAXSIZE bytes, half of them from the start of the output
+     * and half of them from the end.
+     */
+    public HeadTailOutputStream(int maxSize) {
+        this(maxSize - maxSize / 2, maxSize / 2);
+    }
+
+    /**
+     * Creates a stream that keeps the first HEADSIZE and the last TAILSIZE bytes of the output.
+     */
+    public HeadTailOutputStream(int headSize, int tailSize) {
+        this.headSize = headSize;
+        this.tailSize = tailSize;
+        this.buffer = new byte[headSize + tailSize];
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        if (headUsed < headSize) {
+            buffer[headUsed++] = (byte) b;
+            return;
+        }
+        if (tailSize > 0) {
+            buffer[headSize + (int) (tailWritten % tailSize)] = (byte) b;
+        }
+        tailWritten++;
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        int toHead = Math.min(len, headSize - headUsed);
+        System.arraycopy(b, off, buffer, headUsed, toHead);
+        headUsed += toHead;
+        off += toHead;
+        len -= toHead;
+        if (len == 0) {
+            return;
+        }
+
+        // Only the last tailSize bytes can survive, so skip the rest outright.
+        int keep = Math.min(len, tailSize);
+        tailWritten += len - keep;
+        off += len - keep;
+        while (keep > 0) {
+            int position = (int) (tailWritten % tailSize);
+            int chunk = Math.min(keep, tailSize - position);
+            System.arraycopy(b, off, buffer, headSize + position, chunk);
+            tailWritten += chunk;
+            off += chunk;
+            keep -= chunk;
+        }
+    }
+
+    /**
+     * Returns the number of bytes that were dropped between the head and the tail.
+     */
+    public synchronized long elided() {
+        return Math.max(0, tailWritten - tailSize);
+    }
+
+    /**
+     * Returns true if output was so large that some of it had to be dropped.
+     */
+    public boolean truncated() {
+        return elided() > 0;
+    }
+
+    /**
+     * Returns the maximum number of bytes kept.
+     */
+    public int getMaxSize() {
+        return headSize + tailSize;
+    }
+
+    /**
+     * Returns true if any output was kept.
+     */
+    public synchronized boolean written() {
+        return headUsed > 0 || (tailSize > 0 && tailWritten > 0);
+    }
+
+    /**
+     * Discards all output, so that the stream can be reused. Views returned by
+     * {@link #currentGeneration()} before the reset stop writing to it.
+     */
+    public synchronized void reset() {
+        headUsed = 0;
+        tailWritten = 0;
+        generation++;
+    }
+
+    /**
+     * Returns a stream that writes to this one until the next {@link #reset()}, and drops
+     * everything written after it. Threads left over from a test that write to its view can
+     * therefore not write into the output of whatever test reuses this stream.
+     */
+    public OutputStream currentGeneration() {
+        long viewGeneration;
+        synchronized (this) {
+            viewGeneration = generation;
+        }
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+                synchronized (HeadTailOutputStream.this) {
+                    if (generation == viewGeneration) {
+                        HeadTailOutputStream.this.write(b);
+                    }
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                synchronized (HeadTailOutputStream.this) {
+                    if (generation == viewGeneration) {
+                        HeadTailOutputStream.this.write(b, off, len);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the kept output decoded with the default charset, with a marker in place of the dropped bytes.
+     */
+    @Override
+    public synchronized String toString() {
+        Charset charset = Charset.defaultCharset();
+        StringBuilder sb = new StringBuilder(new String(buffer, 0, headUsed, charset));
+        long elided = elided();
+        if (elided > 0) {
+            sb.append(String.format("%n... %d bytes truncated due to excessive output ...%n", elided));
+        }
+        if (tailSize > 0) {
+            if (tailWritten <= tailSize) {
+                sb.append(new String(buffer, headSize, (int) tailWritten, charset));
+            } else {
+                // The oldest byte of a full ring is the one that will be overwritten next.
+                byte[] tail = new byte[tailSize];
+                int start = (int) (tailWritten % tailSize);
+                System.arraycopy(buffer, headSize + start, tail, 0, tailSize - start);
+                System.arraycopy(buffer, headSize, tail, tailSize - start, start);
+                sb.append(new String(tail, charset));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,21 @@
+package jh61b.grader;
+
+/**
+ * Thrown by a test that could not decide whether the code under test is correct, e.g. because the
+ * host was too busy for a timing to be trusted. The graders keep the full score of such a test,
+ * mark it as inconclusive (<code>"inconclusive": true</code> in the extra_data of the JSON results)
+ * and ask for the submission to be graded again, rather than blaming the submission for the host.
+ */
+public class InconclusiveTestException extends RuntimeException {
+    public InconclusiveTestException(String message) {
+        super(message);
+    }
+
+    /**
+     * Returns the message shown to students for a test that ended with CAUSE.
+     */
+    static String describe(InconclusiveTestException cause) {
+        return "Test Inconclusive: " + cause.getMessage() + System.lineSeparator()
+                + "This is not a problem with your code. Please submit again to rerun the test.";
+    }
+}
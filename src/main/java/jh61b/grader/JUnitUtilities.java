@@ -1,13 +1,31 @@
 package jh61b.grader;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public class JUnitUtilities {
+    /* A sequence of at most MAX_CYCLE_LENGTH frames that repeats at least MIN_CYCLE_REPEATS
+       times in a row is runaway recursion, and is folded into a single line. */
+    private static final int MAX_CYCLE_LENGTH = 16;
+    private static final int MIN_CYCLE_REPEATS = 3;
 
     public static String throwableToString(Throwable exception) {
+        return throwableToString(exception, null, null);
+    }
+
+    /**
+     * Like {@link #throwableToString(Throwable)}, but if FAILURES already saw a failure with the
+     * same exception type and shown stack frames, the frames are replaced by a reference to the
+     * first test that failed this way. Otherwise the failure is recorded in FAILURES as one of
+     * the test described by TESTLABEL, e.g. "test 1#01".
+     */
+    public static String throwableToString(Throwable exception, FailureFingerprints failures, String testLabel) {
         if (exception == null) {
             return "null";
         }
@@ -28,20 +46,137 @@ public class JUnitUtilities {
             sb.append(String.format("%s%n", exception));
         }
 
-        frameWalk:
-        for (StackTraceElement frame : exception.getStackTrace()) {
-            for (String exclude : STACK_TRACE_EXCLUDE) {
-                String cleaned = frame.toString().replaceFirst("^" + Pattern.quote(frame.getModuleName() + "/"), "");
-                if (cleaned.startsWith(exclude)) {
-                    continue frameWalk;
+        ShownTrace trace = new ShownTrace(exception.getStackTrace());
+        String firstTest = failures == null ? null : failures.firstTestWith(trace.fingerprint(exception), testLabel);
+        if (firstTest != null) {
+            sb.append(String.format("    (same stack trace as %s)%n", firstTest));
+        } else {
+            sb.append(trace.render());
+        }
+        return sb.toString().replaceFirst("\\s+$", "");
+    }
+
+    /**
+     * The frames of a stack trace that are shown: those that are not excluded, up to the
+     * first stopping frame, with runaway recursion folded into a single line.
+     */
+    private static class ShownTrace {
+        private final List<StackTraceElement> frames = new ArrayList<>();
+        // The fold line goes before frames[foldIndex], if there is one.
+        private int foldIndex = -1;
+        private String foldLine;
+
+        ShownTrace(StackTraceElement[] stackTrace) {
+            int[] cycle = findCycle(stackTrace);
+            if (cycle == null) {
+                addFrames(stackTrace, 0, stackTrace.length);
+                return;
+            }
+            int start = cycle[0];
+            int length = cycle[1];
+            int end = cycle[2];
+            // Show the first repetition in full, then fold the rest without looking at each frame.
+            if (!addFrames(stackTrace, 0, start + length)) {
+                foldIndex = frames.size();
+                foldLine = String.format("    [... %d more frames of %s ...]%n",
+                        end - start - length, cycleString(stackTrace, start, length));
+                addFrames(stackTrace, end, stackTrace.length);
+            }
+        }
+
+        /**
+         * Adds the frames STACKTRACE[FROM, TO) that are not excluded, up to the first stopping frame.
+         * Returns true iff a stopping frame was found.
+         */
+        private boolean addFrames(StackTraceElement[] stackTrace, int from, int to) {
+            for (int i = from; i < to; i++) {
+                StackTraceElement frame = stackTrace[i];
+                if (isExcludedFrame(frame)) {
+                    continue;
+                }
+                frames.add(frame);
+                if (isStoppingFrame(frame)) {
+                    return true;
                 }
             }
-            sb.append(printPosition(frame));
-            if (isStoppingFrame(frame)) {
-                break;
+            return false;
+        }
+
+        /**
+         * Returns a key that is equal for two failures iff they are of the same type and
+         * render to the same frames.
+         */
+        String fingerprint(Throwable exception) {
+            StringBuilder sb = new StringBuilder(exception.getClass().getName()).append('\n');
+            for (int i = 0; i < frames.size(); i++) {
+                if (i == foldIndex) {
+                    sb.append(foldLine);
+                }
+                StackTraceElement frame = frames.get(i);
+                sb.append(frame.getClassName()).append('.').append(frame.getMethodName()).append(':');
+                if (frame.isNativeMethod()) {
+                    sb.append("native");
+                } else {
+                    sb.append(frame.getLineNumber()).append(':').append(frame.getFileName());
+                }
+                sb.append('\n');
+            }
+            if (foldIndex == frames.size()) {
+                sb.append(foldLine);
             }
+            return sb.toString();
         }
-        return sb.toString().replaceFirst("\\s+$", "");
+
+        String render() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < frames.size(); i++) {
+                if (i == foldIndex) {
+                    sb.append(foldLine);
+                }
+                sb.append(printPosition(frames.get(i)));
+            }
+            if (foldIndex == frames.size()) {
+                sb.append(foldLine);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Finds runaway recursion near the top of FRAMES, as is typical for a StackOverflowError.
+     * Returns {start, length, end}, where the LENGTH frames from START repeat until END,
+     * or null if no sequence of frames repeats often enough.
+     */
+    private static int[] findCycle(StackTraceElement[] frames) {
+        for (int start = 0; start < MAX_CYCLE_LENGTH; start++) {
+            for (int length = 1; length <= MAX_CYCLE_LENGTH; length++) {
+                if (start + length * MIN_CYCLE_REPEATS > frames.length) {
+                    break;
+                }
+                int end = start + length;
+                while (end < frames.length && frames[end].equals(frames[end - length])) {
+                    end++;
+                }
+                if (end - start >= length * MIN_CYCLE_REPEATS) {
+                    return new int[]{start, length, end};
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the LENGTH methods from FRAMES[START], e.g. "Foo.helper -> Foo.recurse".
+     */
+    private static String cycleString(StackTraceElement[] frames, int start, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = start; i < start + length; i++) {
+            if (i > start) {
+                sb.append(" -> ");
+            }
+            sb.append(frames[i].getClassName()).append('.').append(frames[i].getMethodName());
+        }
+        return sb.toString();
     }
 
     /**
@@ -62,24 +197,51 @@ public class JUnitUtilities {
         }
     }
 
+    /**
+     * True iff FRAME matches one of the STACK_TRACE_EXCLUDE prefixes. Prefixes are matched
+     * against "class.method(", the start of the frame's string form without its module.
+     */
+    private static boolean isExcludedFrame(StackTraceElement frame) {
+        return EXCLUDED_FRAMES.matchesPrefixOf(frame.getClassName() + "." + frame.getMethodName() + "(");
+    }
+
     /**
      * True iff FRAME is positioned on a method with a junit @Test
-     * annotation.
+     * annotation. Decisions are remembered per class loader, class and method,
+     * since failing parameterized tests ask about the same frames over and over.
      */
     private static boolean isStoppingFrame(StackTraceElement frame) {
         if (frame.isNativeMethod())
             return false;
+        // The context class loader sees the classes of the submission being graded, see AutograderRunner.grade
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null) {
+            loader = JUnitUtilities.class.getClassLoader();
+        }
+        ClassLoader classLoader = loader;
+        Map<String, Boolean> decisions = STOPPING_FRAMES.computeIfAbsent(loader, l -> new ConcurrentHashMap<>());
+        return decisions.computeIfAbsent(frame.getClassName() + "#" + frame.getMethodName(),
+                key -> isTestMethod(classLoader, frame.getClassName(), frame.getMethodName()));
+    }
+
+    private static boolean isTestMethod(ClassLoader loader, String className, String methodName) {
         try {
-            Class<?> cls = Class.forName(frame.getClassName());
-            Method mthd = cls.getMethod(frame.getMethodName());
+            Class<?> cls = Class.forName(className, false, loader);
+            Method mthd = cls.getMethod(methodName);
             return mthd.getAnnotation(org.junit.Test.class) != null || mthd.getAnnotation(org.junit.jupiter.api.Test.class) != null;
         } catch (ClassNotFoundException | NoSuchMethodException | NoClassDefFoundError e) {
             return false;
         }
     }
 
+    /* Stopping-frame decisions by class loader, then by "class#method". Weak so that
+       the class loaders of graded submissions can be collected. */
+    private static final Map<ClassLoader, Map<String, Boolean>> STOPPING_FRAMES =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
     public static final List<String> STACK_TRACE_EXCLUDE = List.of( // region exclusions
             "jh61b.grader.AutograderRunner.",
+            "jh61b.grader.GradedTestTimeoutExtension.",
             "[[Reflective call:",
             "[[Testing framework:",
             "java.util.stream.AbstractPipeline.copyInto(",
@@ -156,4 +318,7 @@ public class JUnitUtilities {
             "java.lang.reflect.Method.invoke(",
             "java.lang.Thread.run("
     );  // endregion
+
+    /* STACK_TRACE_EXCLUDE compiled for fast matching. Must be declared after it. */
+    private static final PrefixTrie EXCLUDED_FRAMES = new PrefixTrie(STACK_TRACE_EXCLUDE);
 }
@@ -0,0 +1,81 @@
+package jh61b.grader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * PrefixTrie answers whether a string starts with any of a fixed set of prefixes in time
+ * proportional to the length of the matched prefix, independent of the number of prefixes.
+ * It is immutable once built, and therefore safe to share between threads.
+ */
+class PrefixTrie {
+    private final Node root;
+
+    private static class Node {
+        // Sorted labels of the outgoing edges, and the child each edge leads to.
+        private final char[] labels;
+        private final Node[] children;
+        // True iff the path to this node spells one of the prefixes.
+        private final boolean terminal;
+
+        Node(char[] labels, Node[] children, boolean terminal) {
+            this.labels = labels;
+            this.children = children;
+            this.terminal = terminal;
+        }
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(labels, c);
+            return i < 0 ? null : children[i];
+        }
+    }
+
+    PrefixTrie(Collection<String> prefixes) {
+        root = build(prefixes, 0);
+    }
+
+    /**
+     * Builds the node for the strings in PREFIXES, all of which share their first DEPTH characters.
+     */
+    private static Node build(Collection<String> prefixes, int depth) {
+        boolean terminal = false;
+        Map<Character, List<String>> byNextChar = new TreeMap<>();
+        for (String prefix : prefixes) {
+            if (prefix.length() == depth) {
+                terminal = true;
+            } else {
+                byNextChar.computeIfAbsent(prefix.charAt(depth), c -> new ArrayList<>()).add(prefix);
+            }
+        }
+        char[] labels = new char[byNextChar.size()];
+        Node[] children = new Node[byNextChar.size()];
+        int i = 0;
+        for (Map.Entry<Character, List<String>> entry : byNextChar.entrySet()) {
+            labels[i] = entry.getKey();
+            children[i] = build(entry.getValue(), depth + 1);
+            i++;
+        }
+        return new Node(labels, children, terminal);
+    }
+
+    /**
+     * Returns true iff S starts with one of the prefixes.
+     */
+    boolean matchesPrefixOf(String s) {
+        Node node = root;
+        for (int i = 0; i < s.length(); i++) {
+            if (node.terminal) {
+                return true;
+            }
+            node = node.child(s.charAt(i));
+            if (node == null) {
+                return false;
+            }
+        }
+        return node.terminal;
+    }
+}
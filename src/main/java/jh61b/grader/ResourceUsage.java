@@ -0,0 +1,124 @@
+package jh61b.grader;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+
+/**
+ * ResourceUsage measures the wall time, CPU time and allocated bytes of one thread while it runs a test.
+ * <p>
+ * CPU time and allocated bytes are -1 if the JVM cannot measure them.
+ */
+class ResourceUsage {
+    /* Keys of the report entry through which a test running on another thread publishes its usage. */
+    static final String CPU_TIME_KEY = "jh61b.cpu_time_ns";
+    static final String ALLOCATED_BYTES_KEY = "jh61b.allocated_bytes";
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final long threadId;
+    private final long startWallTime;
+    private final long startCpuTime;
+    private final long startAllocatedBytes;
+
+    private boolean stopped = false;
+    private long wallTime;
+    private long cpuTime;
+    private long allocatedBytes;
+
+    private ResourceUsage() {
+        threadId = Thread.currentThread().getId();
+        startCpuTime = cpuTime(threadId);
+        startAllocatedBytes = allocatedBytes(threadId);
+        startWallTime = System.nanoTime();
+    }
+
+    /**
+     * Starts measuring the current thread.
+     */
+    static ResourceUsage start() {
+        return new ResourceUsage();
+    }
+
+    /**
+     * Stops measuring. May be called from any thread while the measured thread is still alive;
+     * only the first call has an effect.
+     */
+    synchronized ResourceUsage stop() {
+        if (stopped) {
+            return this;
+        }
+        wallTime = System.nanoTime() - startWallTime;
+        cpuTime = difference(cpuTime(threadId), startCpuTime);
+        allocatedBytes = difference(allocatedBytes(threadId), startAllocatedBytes);
+        stopped = true;
+        return this;
+    }
+
+    synchronized long getWallTime() {
+        return wallTime;
+    }
+
+    synchronized long getCpuTime() {
+        return cpuTime;
+    }
+
+    synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Returns the CPU time and allocated bytes as report entry key-value pairs.
+     */
+    synchronized Map<String, String> toReportEntry() {
+        return Map.of(CPU_TIME_KEY, Long.toString(cpuTime), ALLOCATED_BYTES_KEY, Long.toString(allocatedBytes));
+    }
+
+    /**
+     * Stops measuring and records the usage in RESULT. CPU time and allocated bytes are taken
+     * from REPORTEDUSAGE instead if the test ran on another thread that published its own usage
+     * (see {@link #toReportEntry()}); REPORTEDUSAGE is null otherwise.
+     */
+    void recordIn(TestResult result, Map<String, String> reportedUsage) {
+        stop();
+        long cpu = getCpuTime();
+        long allocated = getAllocatedBytes();
+        if (reportedUsage != null) {
+            cpu = Long.parseLong(reportedUsage.get(CPU_TIME_KEY));
+            allocated = Long.parseLong(reportedUsage.get(ALLOCATED_BYTES_KEY));
+        }
+        result.setResourceUsage(getWallTime(), cpu, allocated);
+    }
+
+    /**
+     * Returns true iff ENTRY was published by {@link #toReportEntry()}.
+     */
+    static boolean isReportEntry(Map<String, String> entry) {
+        return entry.containsKey(CPU_TIME_KEY) && entry.containsKey(ALLOCATED_BYTES_KEY);
+    }
+
+    private static long difference(long end, long start) {
+        if (end < 0 || start < 0) {
+            return -1;
+        }
+        return end - start;
+    }
+
+    private static long cpuTime(long threadId) {
+        if (!THREADS.isThreadCpuTimeSupported() || !THREADS.isThreadCpuTimeEnabled()) {
+            return -1;
+        }
+        return THREADS.getThreadCpuTime(threadId);
+    }
+
+    private static long allocatedBytes(long threadId) {
+        if (!(THREADS instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return threads.getThreadAllocatedBytes(threadId);
+    }
+}
@@ -0,0 +1,156 @@
+package jh61b.grader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * ResultJournal is an append-only log of finished test results, kept next to the results file
+ * so that no grading work is lost if the JVM dies before the results file is written.
+ * <p>
+ * Every result is appended as one line of JSON. Appends are fsynced in batches, since the
+ * data already survives a process crash once written and fsync only protects against the
+ * host itself going down. {@link #writeResults} turns a journal into the final results file
+ * through an atomic rename, so the results file is never observed half written. If the JVM
+ * was killed before it could do this, run
+ * <pre>
+ * java -cp grader.jar jh61b.grader.ResultJournal results.json
+ * </pre>
+ * to recover the results of every test that finished.
+ */
+public class ResultJournal implements Closeable {
+    /* Results appended since the last fsync before another fsync is forced. */
+    private static final int FSYNC_BATCH_SIZE = 16;
+    /* Milliseconds since the last fsync before another fsync is forced. */
+    private static final long FSYNC_INTERVAL_MS = 1000;
+
+    private static final Gson GSON = new Gson();
+
+    private final FileChannel channel;
+    private int unsynced = 0;
+    private long lastSync = System.currentTimeMillis();
+
+    /**
+     * Starts an empty journal for the results file RESULTPATH, discarding any previous journal.
+     */
+    public ResultJournal(Path resultPath) throws IOException {
+        channel = FileChannel.open(journalPath(resultPath), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Returns the path of the journal that belongs to the results file RESULTPATH.
+     */
+    public static Path journalPath(Path resultPath) {
+        return resultPath.resolveSibling(resultPath.getFileName() + ".journal");
+    }
+
+    /**
+     * Appends TESTRESULT to the journal.
+     */
+    public synchronized void append(TestResult testResult) throws IOException {
+        String line = GSON.toJson(testResult.toJSON()) + "\n";
+        ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        unsynced++;
+        long now = System.currentTimeMillis();
+        if (unsynced >= FSYNC_BATCH_SIZE || now - lastSync >= FSYNC_INTERVAL_MS) {
+            channel.force(false);
+            unsynced = 0;
+            lastSync = now;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            channel.force(false);
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes the results file RESULTPATH from its journal and then deletes the journal.
+     * EXECUTIONTIME (in milliseconds) and OUTPUT are added to the results if they are not null.
+     * The results are written to a temporary file that is then atomically renamed, so that
+     * RESULTPATH either holds the old contents or the complete new results.
+     * Lines of the journal that are not valid JSON, like a line cut off by a crash, are skipped.
+     *
+     * @return the number of test results written
+     */
+    public static int writeResults(Path resultPath, Long executionTime, String output) throws IOException {
+        Path journalPath = journalPath(resultPath);
+        Path tempPath = resultPath.resolveSibling(resultPath.getFileName() + ".tmp");
+        Gson pretty = new GsonBuilder().setPrettyPrinting().create();
+        int count = 0;
+
+        try (BufferedReader in = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8);
+             FileChannel tempChannel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            BufferedWriter writer = new BufferedWriter(Channels.newWriter(tempChannel, StandardCharsets.UTF_8));
+            JsonWriter out = new JsonWriter(writer);
+            out.setIndent("  ");
+            out.beginObject();
+            if (executionTime != null) {
+                out.name("execution_time").value(executionTime);
+            }
+            if (output != null) {
+                out.name("output").value(output);
+            }
+            out.name("tests");
+            out.beginArray();
+            String line;
+            while ((line = in.readLine()) != null) {
+                JsonElement result;
+                try {
+                    result = JsonParser.parseString(line);
+                } catch (JsonParseException e) {
+                    continue;
+                }
+                pretty.toJson(result, out);
+                count++;
+            }
+            out.endArray();
+            out.endObject();
+            out.flush();
+            tempChannel.force(true);
+        }
+
+        Files.move(tempPath, resultPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        Files.delete(journalPath);
+        return count;
+    }
+
+    /**
+     * Recovers the results file given as the only argument from its journal.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: java jh61b.grader.ResultJournal <results file>");
+            System.exit(1);
+        }
+        Path resultPath = Paths.get(args[0]);
+        int count = writeResults(resultPath, null,
+                "Grading did not finish. Only the results of tests that completed are shown.");
+        System.out.println("Recovered " + count + " test results into " + resultPath);
+    }
+}
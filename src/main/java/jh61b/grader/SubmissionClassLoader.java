@@ -0,0 +1,68 @@
+package jh61b.grader;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+
+/**
+ * SubmissionClassLoader loads one student submission (and the tests that run against it)
+ * in isolation from every other submission graded in the same JVM.
+ * <p>
+ * Classes are looked up in the submission first and only then in the parent, so that
+ * test classes that are also on the JVM classpath link against the student's classes
+ * rather than whatever copy the parent happens to have. The grader itself, JUnit and
+ * Gson are always taken from the parent, so they are loaded and initialized only once.
+ */
+class SubmissionClassLoader extends URLClassLoader {
+    static {
+        registerAsParallelCapable();
+    }
+
+    private static final List<String> SHARED_PREFIXES = List.of(
+            "java.",
+            "javax.",
+            "jdk.",
+            "sun.",
+            "com.sun.",
+            "jh61b.",
+            "junit.",
+            "org.junit.",
+            "org.opentest4j.",
+            "org.apiguardian.",
+            "com.google.gson."
+    );
+
+    SubmissionClassLoader(URL[] urls, ClassLoader parent) {
+        super(urls, parent);
+    }
+
+    private static boolean isShared(String name) {
+        for (String prefix : SHARED_PREFIXES) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (isShared(name)) {
+            return super.loadClass(name, resolve);
+        }
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> c = findLoadedClass(name);
+            if (c == null) {
+                try {
+                    c = findClass(name);
+                } catch (ClassNotFoundException e) {
+                    c = getParent().loadClass(name);
+                }
+            }
+            if (resolve) {
+                resolveClass(c);
+            }
+            return c;
+        }
+    }
+}
@@ -12,6 +12,17 @@ public class TestResult {
     protected double score;
     protected final boolean suppressOutput;
 
+    // True if the test could not decide whether the code was correct, see InconclusiveTestException.
+    protected boolean inconclusive = false;
+
+    // Threads of timed-out tests that were still running when this test finished.
+    protected int runawayThreads = 0;
+
+    // Resources used by the test, in nanoseconds and bytes. -1 if not measured.
+    protected long wallTime = -1;
+    protected long cpuTime = -1;
+    protected long allocatedBytes = -1;
+
     // outputSB is any text that we want to relay to the user when the test is done running.
     private StringBuilder outputSB;
 
@@ -38,6 +49,30 @@ public class TestResult {
         this.score = score;
     }
 
+    public void setInconclusive(boolean inconclusive) {
+        this.inconclusive = inconclusive;
+    }
+
+    public void setRunawayThreads(int runawayThreads) {
+        this.runawayThreads = runawayThreads;
+    }
+
+    public void setResourceUsage(long wallTime, long cpuTime, long allocatedBytes) {
+        this.wallTime = wallTime;
+        this.cpuTime = cpuTime;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * Returns a one-line summary of the resources used by the test.
+     */
+    public String resourceUsageString() {
+        return String.format("%s wall, %s CPU, %s allocated",
+                wallTime < 0 ? "?" : String.format("%.3f ms", wallTime / 1e6),
+                cpuTime < 0 ? "?" : String.format("%.3f ms", cpuTime / 1e6),
+                allocatedBytes < 0 ? "?" : allocatedBytes + " bytes");
+    }
+
     public void addOutput(String x) {
         if (!suppressOutput) {
             outputSB.append(x);
@@ -51,6 +86,27 @@ public class TestResult {
         obj.addProperty("score", score);
         obj.addProperty("max_score", maxScore);
         obj.addProperty("output", outputSB.toString());
+
+        // Gradescope keeps extra_data without displaying it.
+        JsonObject extraData = new JsonObject();
+        if (inconclusive) {
+            extraData.addProperty("inconclusive", true);
+        }
+        if (runawayThreads > 0) {
+            extraData.addProperty("runaway_test_threads", runawayThreads);
+        }
+        if (wallTime >= 0) {
+            extraData.addProperty("wall_time_ns", wallTime);
+        }
+        if (cpuTime >= 0) {
+            extraData.addProperty("cpu_time_ns", cpuTime);
+        }
+        if (allocatedBytes >= 0) {
+            extraData.addProperty("allocated_bytes", allocatedBytes);
+        }
+        if (extraData.size() > 0) {
+            obj.add("extra_data", extraData);
+        }
         return obj;
     }
 }
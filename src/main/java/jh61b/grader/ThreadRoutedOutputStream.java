@@ -0,0 +1,107 @@
+package jh61b.grader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * ThreadRoutedOutputStream forwards every write to the stream registered for the
+ * writing thread, so that tests running concurrently each capture only their own output.
+ * <p>
+ * Routes are not inherited: a thread that outlives the test that created it (e.g. a pool
+ * worker) must not keep writing into that test's output. Only threads started through
+ * {@link #withRoutesOf(Runnable)}, such as the test threads of {@link GradedTestTimeoutExtension},
+ * write where the thread that started them writes. Writes from threads without a registered
+ * stream go to the fallback stream and are never charged to a test. The fallback should be
+ * stderr rather than a stream that carries results, since graded code can start threads.
+ */
+public class ThreadRoutedOutputStream extends OutputStream {
+    /* Every stream that may have routes, so that withRoutesOf can copy them. */
+    private static final Set<ThreadRoutedOutputStream> STREAMS =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    private final ThreadLocal<OutputStream> routes = new ThreadLocal<>();
+    private final OutputStream fallback;
+
+    public ThreadRoutedOutputStream(OutputStream fallback) {
+        this.fallback = fallback;
+        STREAMS.add(this);
+    }
+
+    /**
+     * Returns TASK wrapped so that, on whatever thread it runs, its output is routed like that
+     * of the current thread for every ThreadRoutedOutputStream. The routes are removed again
+     * when TASK returns.
+     */
+    public static Runnable withRoutesOf(Runnable task) {
+        List<Map.Entry<ThreadRoutedOutputStream, OutputStream>> current = new ArrayList<>();
+        synchronized (STREAMS) {
+            for (ThreadRoutedOutputStream stream : STREAMS) {
+                OutputStream target = stream.routes.get();
+                if (target != null) {
+                    current.add(Map.entry(stream, target));
+                }
+            }
+        }
+        return () -> {
+            for (Map.Entry<ThreadRoutedOutputStream, OutputStream> route : current) {
+                route.getKey().route(route.getValue());
+            }
+            try {
+                task.run();
+            } finally {
+                for (Map.Entry<ThreadRoutedOutputStream, OutputStream> route : current) {
+                    route.getKey().unroute();
+                }
+            }
+        };
+    }
+
+    /**
+     * Sends all output written by the current thread to TARGET until {@link #unroute()} is called.
+     */
+    public void route(OutputStream target) {
+        routes.set(target);
+    }
+
+    /**
+     * Stops routing output of the current thread to its registered stream.
+     */
+    public void unroute() {
+        routes.remove();
+    }
+
+    private OutputStream target() {
+        OutputStream target = routes.get();
+        return target == null ? fallback : target;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        OutputStream target = target();
+        synchronized (target) {
+            target.write(b);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        OutputStream target = target();
+        synchronized (target) {
+            target.write(b, off, len);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        OutputStream target = target();
+        synchronized (target) {
+            target.flush();
+        }
+    }
+}
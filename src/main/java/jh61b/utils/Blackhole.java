@@ -0,0 +1,29 @@
+package jh61b.utils;
+
+/**
+ * Blackhole consumes values so that the JIT compiler cannot prove them unused and eliminate
+ * the code that computed them. Timed code should hand its results to {@link #consume}.
+ */
+public final class Blackhole {
+    private static volatile Object sink;
+    private static volatile long longSink;
+
+    private Blackhole() {
+    }
+
+    public static void consume(Object o) {
+        sink = o;
+    }
+
+    public static void consume(long v) {
+        longSink = v;
+    }
+
+    public static void consume(double v) {
+        longSink = Double.doubleToRawLongBits(v);
+    }
+
+    public static void consume(boolean v) {
+        longSink = v ? 1 : 0;
+    }
+}
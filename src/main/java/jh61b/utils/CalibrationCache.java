@@ -0,0 +1,363 @@
+package jh61b.utils;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * CalibrationCache keeps measurements of a reference implementation on disk, so that grading jobs
+ * on the same kind of host measure the reference once rather than every time.
+ * <p>
+ * Measurements are kept per host fingerprint (CPU model, number of cores, operating system and JVM)
+ * and per SHA-256 hash of the class files of the reference, in one JSON file per pair under
+ * <code>~/.jh61b/calibration</code>, or under the directory named by the
+ * <code>jh61b.calibration.dir</code> system property. The hash covers the reference class, its nested
+ * classes and the other <code>AGAPI</code> classes of its package that it uses, but not the student
+ * classes that usually sit next to it, so every submission shares the file. Changing the host or
+ * the reference therefore starts a new file, whose measurements are taken again on first use.
+ * Each workload is stored with the times at every size. Measurements taken while the host was too
+ * busy are not stored.
+ * <p>
+ * The file is read when a measurement is first requested, not when the cache is created, and it is
+ * replaced atomically, so that concurrent grading jobs never see a partial file.
+ */
+public class CalibrationCache {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+
+    private static String hostFingerprint;
+
+    private final Class<?> referenceClass;
+    private final Path directory;
+    private String referenceHash;
+    private JsonObject contents;
+
+    private CalibrationCache(Class<?> referenceClass, Path directory) {
+        this.referenceClass = referenceClass;
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the cache of measurements of REFERENCECLASS in the default directory.
+     */
+    public static CalibrationCache forReference(Class<?> referenceClass) {
+        String directory = System.getProperty("jh61b.calibration.dir");
+        if (directory == null) {
+            return forReference(referenceClass, Paths.get(System.getProperty("user.home"), ".jh61b", "calibration"));
+        }
+        return forReference(referenceClass, Paths.get(directory));
+    }
+
+    public static CalibrationCache forReference(Class<?> referenceClass, Path directory) {
+        return new CalibrationCache(referenceClass, directory);
+    }
+
+    /**
+     * Returns the measurement called WORKLOAD, taken with OPTIONS, from the cache. If it is not
+     * there, takes it with MEASURE and stores it first, unless the host was too busy for it to be
+     * trusted (see {@link MeasurementOptions#maxContention}), in which case it is returned without
+     * being stored.
+     */
+    public synchronized Measurement getOrMeasure(String workload, MeasurementOptions options, Supplier<Measurement> measure) {
+        JsonObject workloads = load().getAsJsonObject("workloads");
+        String name = workload + " " + options.toArgs();
+        JsonElement stored = workloads.get(name);
+        if (stored != null) {
+            try {
+                return fromJSON(stored.getAsJsonObject());
+            } catch (RuntimeException e) {
+                // Measured again below, like a missing entry
+            }
+        }
+
+        Measurement measurement = measure.get();
+        if (!measurement.isContended(options.maxContention)) {
+            workloads.add(name, toJSON(measurement));
+            save();
+        }
+        return measurement;
+    }
+
+    /**
+     * Returns the host fingerprint that measurements are kept under.
+     */
+    public static synchronized String hostFingerprint() {
+        if (hostFingerprint == null) {
+            hostFingerprint = String.join("; ",
+                    "cpu=" + cpuModel(),
+                    "cores=" + Runtime.getRuntime().availableProcessors(),
+                    "os=" + System.getProperty("os.name") + " " + System.getProperty("os.arch"),
+                    "jvm=" + System.getProperty("java.vm.name") + " " + System.getProperty("java.vm.version"));
+        }
+        return hostFingerprint;
+    }
+
+    /**
+     * Returns the path of the file of this host and reference.
+     */
+    public synchronized Path getPath() {
+        String key = hostFingerprint() + "\n" + referenceClass.getName() + "\n" + referenceHash();
+        return directory.resolve(referenceClass.getName() + "-" + sha256(key.getBytes(StandardCharsets.UTF_8)).substring(0, 16) + ".json");
+    }
+
+    private JsonObject load() {
+        if (contents == null) {
+            contents = read();
+        }
+        return contents;
+    }
+
+    /**
+     * Returns the contents of the file of this host and reference, or empty contents if there is no
+     * such file or it cannot be read.
+     */
+    private JsonObject read() {
+        Path path = getPath();
+        if (Files.exists(path)) {
+            try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                JsonObject stored = JsonParser.parseReader(in).getAsJsonObject();
+                // Guards against the (unlikely) case of two keys with the same file name
+                if (hostFingerprint().equals(stored.get("host").getAsString())
+                        && referenceHash().equals(stored.get("reference_sha256").getAsString())
+                        && stored.has("workloads")) {
+                    return stored;
+                }
+            } catch (IOException | JsonParseException | IllegalStateException | NullPointerException e) {
+                // An unreadable file is replaced by a new calibration
+                System.err.println("Warning: ignoring unreadable calibration " + path + ": " + e);
+            }
+        }
+        JsonObject empty = new JsonObject();
+        empty.addProperty("host", hostFingerprint());
+        empty.addProperty("reference", referenceClass.getName());
+        empty.addProperty("reference_sha256", referenceHash());
+        empty.add("workloads", new JsonObject());
+        return empty;
+    }
+
+    private void save() {
+        Path path = getPath();
+        // Keeps the workloads that other grading jobs measured since this one read the file
+        JsonObject workloads = contents.getAsJsonObject("workloads");
+        for (Map.Entry<String, JsonElement> entry : read().getAsJsonObject("workloads").entrySet()) {
+            if (!workloads.has(entry.getKey())) {
+                workloads.add(entry.getKey(), entry.getValue());
+            }
+        }
+        try {
+            Files.createDirectories(directory);
+            Path tempPath = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+            try (Writer out = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+                GSON.toJson(contents, out);
+            }
+            Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // The measurement can still be used; it just is not cached.
+            System.err.println("Warning: could not cache the calibration in " + path + ": " + e);
+        }
+    }
+
+    private static JsonObject toJSON(Measurement measurement) {
+        JsonObject json = new JsonObject();
+        json.add("sizes", GSON.toJsonTree(measurement.sizes));
+        json.add("times", GSON.toJsonTree(measurement.times));
+        return json;
+    }
+
+    private static Measurement fromJSON(JsonObject json) {
+        Measurement measurement = new Measurement();
+        JsonArray sizes = json.getAsJsonArray("sizes");
+        JsonArray times = json.getAsJsonArray("times");
+        for (int i = 0; i < sizes.size(); i++) {
+            measurement.add(sizes.get(i).getAsInt(), times.get(i).getAsLong());
+        }
+        return measurement;
+    }
+
+    private synchronized String referenceHash() {
+        if (referenceHash == null) {
+            referenceHash = hashReference(referenceClass);
+        }
+        return referenceHash;
+    }
+
+    /**
+     * Returns the hash of the class files of REFERENCECLASS and of the reference classes it uses, by
+     * name and contents. Those are the classes of its package that it refers to, directly or through
+     * one another, and that are nested in it or named "AGAPI..." by the convention of
+     * {@link APIChecker}. Student classes next to the reference are thus never part of the hash.
+     */
+    private static String hashReference(Class<?> referenceClass) {
+        ClassLoader loader = referenceClass.getClassLoader() != null ? referenceClass.getClassLoader() : ClassLoader.getSystemClassLoader();
+        String name = referenceClass.getName().replace('.', '/');
+        String packagePath = name.substring(0, name.lastIndexOf('/') + 1);
+        // Sorted by name, so that the hash does not depend on the order the classes are found in
+        Map<String, byte[]> classFiles = new TreeMap<>();
+        Deque<String> toHash = new ArrayDeque<>(List.of(name));
+        while (!toHash.isEmpty()) {
+            String next = toHash.pop();
+            if (classFiles.containsKey(next)) {
+                continue;
+            }
+            byte[] classFile = readClassFile(loader, next);
+            if (classFile == null) {
+                continue;
+            }
+            classFiles.put(next, classFile);
+            for (String referenced : referencedClasses(classFile)) {
+                if (!referenced.startsWith(packagePath)) {
+                    continue;
+                }
+                String simpleName = referenced.substring(packagePath.length());
+                if (simpleName.indexOf('/') < 0 && (simpleName.startsWith("AGAPI") || referenced.startsWith(name + "$"))) {
+                    toHash.push(referenced);
+                }
+            }
+        }
+        if (classFiles.isEmpty()) {
+            return "unknown";
+        }
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        for (Map.Entry<String, byte[]> classFile : classFiles.entrySet()) {
+            all.writeBytes(classFile.getKey().getBytes(StandardCharsets.UTF_8));
+            all.write(0);
+            all.writeBytes(classFile.getValue());
+        }
+        return sha256(all.toByteArray());
+    }
+
+    /**
+     * Returns the class file of the class with the internal name NAME, or null if LOADER has none.
+     */
+    private static byte[] readClassFile(ClassLoader loader, String name) {
+        try (InputStream in = loader.getResourceAsStream(name + ".class")) {
+            return in == null ? null : in.readAllBytes();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /* Class types in field and method descriptors and signatures, e.g. Ljava/lang/String; */
+    private static final Pattern CLASS_TYPE = Pattern.compile("L([^;<>]+)[;<]");
+
+    /**
+     * Returns the internal names of the classes that the constant pool of CLASSFILE refers to, as
+     * classes or in the types of descriptors and signatures, or none if it cannot be parsed.
+     */
+    private static Set<String> referencedClasses(byte[] classFile) {
+        ByteBuffer in = ByteBuffer.wrap(classFile);
+        try {
+            in.position(8);
+            int count = in.getShort() & 0xffff;
+            String[] utf8 = new String[count];
+            int[] classNames = new int[count];
+            int classes = 0;
+            for (int i = 1; i < count; i++) {
+                int tag = in.get() & 0xff;
+                switch (tag) {
+                    case 1:
+                        int length = in.getShort() & 0xffff;
+                        utf8[i] = new DataInputStream(new ByteArrayInputStream(classFile, in.position() - 2, 2 + length)).readUTF();
+                        in.position(in.position() + length);
+                        break;
+                    case 5: case 6:
+                        in.position(in.position() + 8);
+                        // Longs and doubles take up two entries
+                        i++;
+                        break;
+                    case 7:
+                        classNames[classes++] = in.getShort() & 0xffff;
+                        break;
+                    case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+                        in.position(in.position() + 4);
+                        break;
+                    case 15:
+                        in.position(in.position() + 3);
+                        break;
+                    case 8: case 16: case 19: case 20:
+                        in.position(in.position() + 2);
+                        break;
+                    default:
+                        return Set.of();
+                }
+            }
+            Set<String> referenced = new TreeSet<>();
+            for (int i = 0; i < classes; i++) {
+                if (utf8[classNames[i]] != null) {
+                    referenced.add(utf8[classNames[i]]);
+                }
+            }
+            // Fields that are never accessed only show up in descriptors
+            for (String constant : utf8) {
+                if (constant != null) {
+                    Matcher type = CLASS_TYPE.matcher(constant);
+                    while (type.find()) {
+                        referenced.add(type.group(1));
+                    }
+                }
+            }
+            return referenced;
+        } catch (IOException | RuntimeException e) {
+            return Set.of();
+        }
+    }
+
+    private static String cpuModel() {
+        Path cpuinfo = Paths.get("/proc/cpuinfo");
+        if (Files.isReadable(cpuinfo)) {
+            try {
+                List<String> lines = Files.readAllLines(cpuinfo, StandardCharsets.UTF_8);
+                for (String line : lines) {
+                    if (line.startsWith("model name")) {
+                        return line.substring(line.indexOf(':') + 1).trim();
+                    }
+                }
+            } catch (IOException e) {
+                // Falls through to the less specific descriptions
+            }
+        }
+        String identifier = System.getenv("PROCESSOR_IDENTIFIER");
+        return identifier != null ? identifier : System.getProperty("os.arch");
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
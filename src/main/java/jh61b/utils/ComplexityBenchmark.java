@@ -0,0 +1,20 @@
+package jh61b.utils;
+
+/**
+ * A ComplexityBenchmark describes a runtime complexity measurement by class, so that it can be
+ * run in a fresh JVM (see {@link MeasurementOptions#fork(boolean)}). Implementations need a public
+ * no-argument constructor.
+ *
+ * @param <DS> type of the data structure under test
+ */
+public interface ComplexityBenchmark<DS> {
+    /**
+     * Returns a data structure of the given size.
+     */
+    DS provideDSOfSize(int size);
+
+    /**
+     * Runs the operation being measured on DS.
+     */
+    void functionToTest(DS ds);
+}
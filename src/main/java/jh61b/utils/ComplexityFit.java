@@ -0,0 +1,204 @@
+package jh61b.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jh61b.utils.RuntimeInstrumentation.ComplexityType;
+
+/**
+ * ComplexityFit is the complexity that best fits a {@link Measurement}, along with the growth exponent
+ * of its times, i.e. the k for which they grow like N^k, and a 95% confidence interval for it.
+ * <p>
+ * Fits are Theil-Sen regressions on logarithms: the slope is the median of the slopes between all
+ * pairs of points, so up to about a quarter of the points can be outliers, e.g. sizes disturbed by
+ * the garbage collector, without moving it. A complexity fits if the times divided by it neither grow
+ * nor shrink, which tells apart classes whose exponents are close, such as N log N and N^1.1, given
+ * a wide enough range of sizes; the exponent and its interval are reported either way.
+ * Of the complexities that the confidence interval cannot rule out, the slowest growing one is
+ * chosen, so noisy times are given the benefit of the doubt.
+ */
+public class ComplexityFit {
+    /* Complexities of the form N^k (log N)^j, from slowest growing to fastest growing. */
+    private static final ComplexityType[] POLYNOMIAL = {
+        ComplexityType.CONSTANT, ComplexityType.LOGARITHMIC, ComplexityType.LINEAR,
+        ComplexityType.LINEARITHMIC, ComplexityType.QUADRATIC, ComplexityType.CUBIC,
+    };
+
+    /* Times that still grow like N^MAX_LEFTOVER_EXPONENT after dividing them by N^3 are worse than cubic. */
+    private static final double MAX_LEFTOVER_EXPONENT = 0.5;
+
+    /* Normal quantile of the 95% confidence interval. */
+    private static final double Z_95 = 1.96;
+
+    private final ComplexityType type;
+    private final double exponent;
+    private final double exponentLower;
+    private final double exponentUpper;
+
+    private ComplexityFit(ComplexityType type, double[] exponent) {
+        this.type = type;
+        this.exponent = exponent[0];
+        this.exponentLower = exponent[1];
+        this.exponentUpper = exponent[2];
+    }
+
+    public ComplexityType getType() {
+        return type;
+    }
+
+    /**
+     * Returns the k for which the times grow like N^k.
+     */
+    public double getExponent() {
+        return exponent;
+    }
+
+    public double getExponentLower() {
+        return exponentLower;
+    }
+
+    public double getExponentUpper() {
+        return exponentUpper;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (grows like N^%.2f, 95%% confidence interval N^%.2f to N^%.2f)",
+                type, exponent, exponentLower, exponentUpper);
+    }
+
+    /**
+     * Returns the complexity that best fits MEASUREMENT.
+     */
+    static ComplexityFit of(Measurement measurement) {
+        double[] logSizes = new double[measurement.sizes.size()];
+        double[] logTimes = new double[logSizes.length];
+        for (int i = 0; i < logSizes.length; i++) {
+            logSizes[i] = Math.log(measurement.sizes.get(i));
+            logTimes[i] = Math.log(Math.max(1, measurement.times.get(i)));
+        }
+        double[] exponent = theilSen(logSizes, logTimes);
+
+        ComplexityType best = null;
+        double bestSlope = Double.POSITIVE_INFINITY;
+        for (ComplexityType candidate : POLYNOMIAL) {
+            double[] leftover = leftoverSlope(candidate, measurement);
+            if (leftover[1] <= 0 && 0 <= leftover[2]) {
+                best = candidate;
+                break;
+            }
+            // If none of them is consistent with the times, keep the one that leaves the least growth
+            if (Math.abs(leftover[0]) < bestSlope) {
+                best = candidate;
+                bestSlope = Math.abs(leftover[0]);
+            }
+        }
+
+        // Times that shrink, or grow faster than any polynomial candidate, fit none of them.
+        if (exponent[0] <= 0) {
+            best = ComplexityType.CONSTANT;
+        } else if (best == ComplexityType.CUBIC && leftoverSlope(best, measurement)[0] > MAX_LEFTOVER_EXPONENT) {
+            best = isExponential(measurement, logSizes, logTimes) ? ComplexityType.EXPONENTIAL : ComplexityType.WORSE;
+        }
+        return new ComplexityFit(best, exponent);
+    }
+
+    /**
+     * Returns the Theil-Sen slope, with its confidence interval, of the logarithm of the times divided
+     * by TYPE against the logarithm of the sizes. It is 0 if TYPE fits.
+     */
+    private static double[] leftoverSlope(ComplexityType type, Measurement measurement) {
+        double[] logSizes = new double[measurement.sizes.size()];
+        double[] leftover = new double[logSizes.length];
+        for (int i = 0; i < logSizes.length; i++) {
+            int size = measurement.sizes.get(i);
+            logSizes[i] = Math.log(size);
+            leftover[i] = Math.log(Math.max(1, measurement.times.get(i))) - logGrowth(type, size);
+        }
+        return theilSen(logSizes, leftover);
+    }
+
+    /**
+     * Returns the logarithm of how TYPE grows at size N, up to constant factors.
+     */
+    private static double logGrowth(ComplexityType type, double n) {
+        double log = Math.log(n);
+        switch (type) {
+            case CONSTANT:
+                return 0;
+            case LOGARITHMIC:
+                return Math.log(log);
+            case LINEAR:
+                return log;
+            case LINEARITHMIC:
+                return log + Math.log(log);
+            case QUADRATIC:
+                return 2 * log;
+            case CUBIC:
+                return 3 * log;
+            default:
+                throw new IllegalArgumentException("No polynomial growth for " + type);
+        }
+    }
+
+    /**
+     * Returns true if the logarithms of the times are closer to a line in the sizes, as for exponential
+     * growth, than to a line in the logarithms of the sizes, as for polynomial growth.
+     */
+    private static boolean isExponential(Measurement measurement, double[] logSizes, double[] logTimes) {
+        double[] sizes = new double[logSizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = measurement.sizes.get(i);
+        }
+        return medianAbsoluteResidual(sizes, logTimes) < medianAbsoluteResidual(logSizes, logTimes);
+    }
+
+    private static double medianAbsoluteResidual(double[] x, double[] y) {
+        double slope = theilSen(x, y)[0];
+        double[] intercepts = new double[x.length];
+        for (int i = 0; i < x.length; i++) {
+            intercepts[i] = y[i] - slope * x[i];
+        }
+        double intercept = median(intercepts);
+        double[] residuals = new double[x.length];
+        for (int i = 0; i < x.length; i++) {
+            residuals[i] = Math.abs(y[i] - intercept - slope * x[i]);
+        }
+        return median(residuals);
+    }
+
+    /**
+     * Returns the Theil-Sen slope of Y against X and the bounds of its 95% confidence interval,
+     * which are order statistics of the pairwise slopes (Sen, 1968).
+     */
+    private static double[] theilSen(double[] x, double[] y) {
+        List<Double> slopes = new ArrayList<>();
+        for (int i = 0; i < x.length; i++) {
+            for (int j = i + 1; j < x.length; j++) {
+                if (x[j] != x[i]) {
+                    slopes.add((y[j] - y[i]) / (x[j] - x[i]));
+                }
+            }
+        }
+        if (slopes.isEmpty()) {
+            return new double[] {0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY};
+        }
+        double[] sorted = slopes.stream().mapToDouble(Double::doubleValue).sorted().toArray();
+        int n = x.length;
+        double spread = Z_95 * Math.sqrt(n * (n - 1) * (2.0 * n + 5) / 18);
+        int lower = (int) Math.max(0, Math.floor((sorted.length - spread) / 2));
+        int upper = (int) Math.min(sorted.length - 1, Math.ceil((sorted.length + spread) / 2));
+        return new double[] {median(sorted), sorted[lower], sorted[upper]};
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+        if (sorted.length % 2 == 1) {
+            return sorted[middle];
+        }
+        return (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+}
@@ -0,0 +1,116 @@
+package jh61b.utils;
+
+/**
+ * LatencyHistogram counts recorded times in buckets whose width grows with their value, so that any
+ * value from 0 to {@link Long#MAX_VALUE} is kept to within 1/16 of itself in a fixed 8 KB.
+ * Recording a value takes constant time and does not allocate.
+ * <p>
+ * Values below 16 have a bucket each. Above that, every power of two is split into 16 buckets.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private long max = 0;
+
+    /**
+     * Records VALUE, which must not be negative.
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts[bucketOf(value)]++;
+        count++;
+        max = Math.max(max, value);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns a value that PERCENTILE percent of the recorded values are at most, to within the
+     * width of its bucket. The 100th percentile is the exact maximum.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        if (percentile >= 100) {
+            return max;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, highestValueIn(i));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns the median, the 99th percentile and the maximum of the recorded values, as nanoseconds.
+     */
+    public String summary() {
+        return String.format("p50 %d ns, p99 %d ns, max %d ns over %d samples",
+                getValueAtPercentile(50), getValueAtPercentile(99), max, count);
+    }
+
+    @Override
+    public String toString() {
+        return summary();
+    }
+
+    /**
+     * Returns the recorded counts as comma-separated bucket/count pairs of the nonempty buckets,
+     * preceded by the maximum. The inverse of {@link #parse}.
+     */
+    String format() {
+        StringBuilder sb = new StringBuilder(Long.toString(max));
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] > 0) {
+                sb.append(',').append(i).append('/').append(counts[i]);
+            }
+        }
+        return sb.toString();
+    }
+
+    static LatencyHistogram parse(String formatted) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        String[] parts = formatted.split(",");
+        histogram.max = Long.parseLong(parts[0]);
+        for (int i = 1; i < parts.length; i++) {
+            int slash = parts[i].indexOf('/');
+            long bucketCount = Long.parseLong(parts[i].substring(slash + 1));
+            histogram.counts[Integer.parseInt(parts[i].substring(0, slash))] = bucketCount;
+            histogram.count += bucketCount;
+        }
+        return histogram;
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (SUB_BUCKETS + bucket % SUB_BUCKETS) * width + width - 1;
+    }
+}
@@ -0,0 +1,134 @@
+package jh61b.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measurement holds the mean running time measured at each of a series of increasing sizes,
+ * and how busy the host was while they were measured.
+ */
+public class Measurement {
+    final List<Integer> sizes = new ArrayList<>();
+    final List<Long> times = new ArrayList<>();
+    // Distribution of the samples behind each time; empty if the times are not made of samples.
+    final List<LatencyHistogram> histograms = new ArrayList<>();
+
+    // True if doubling stopped early because the times already grew far faster than the expected complexity allows.
+    boolean ruledOut = false;
+
+    // Total wall time and CPU time of the measuring thread over all timed calls; cpuNanos is -1 if unknown.
+    long wallNanos = 0;
+    long cpuNanos = 0;
+
+    // Number of samples discarded because the garbage collector or the JIT compiler ran during them.
+    int rejectedSamples = 0;
+
+    void add(int size, long time) {
+        sizes.add(size);
+        times.add(time);
+    }
+
+    void add(int size, long time, LatencyHistogram histogram) {
+        add(size, time);
+        histograms.add(histogram);
+    }
+
+    /**
+     * Adds the wall time WALL and CPU time CPU of timed calls; CPU is -1 if unknown.
+     */
+    void addUsage(long wall, long cpu) {
+        wallNanos += wall;
+        cpuNanos = (cpu < 0 || cpuNanos < 0) ? -1 : cpuNanos + cpu;
+    }
+
+    /**
+     * Returns by what factor the time grew from the first to the last size.
+     */
+    double growth() {
+        return (double) times.get(times.size() - 1) / Math.max(times.get(0), 1);
+    }
+
+    public List<Integer> getSizes() {
+        return Collections.unmodifiableList(sizes);
+    }
+
+    /**
+     * Returns the mean time in nanoseconds of one call at each of the sizes.
+     */
+    public List<Long> getTimes() {
+        return Collections.unmodifiableList(times);
+    }
+
+    /**
+     * Returns the distribution of the per-call times sampled at each of the sizes. Calls faster than
+     * <code>minBatchNanos</code> are sampled in batches, so each of their samples is a batch mean.
+     */
+    public List<LatencyHistogram> getHistograms() {
+        return Collections.unmodifiableList(histograms);
+    }
+
+    /**
+     * Returns a measurement of the PERCENTILEth percentile of the samples at each size instead of
+     * their mean; the 100th percentile is the slowest sample. Samples are means of batches if the
+     * options asked for batches, so only an unbatched measurement has the percentiles of single calls.
+     */
+    public Measurement atPercentile(double percentile) {
+        Measurement measurement = new Measurement();
+        for (int i = 0; i < histograms.size(); i++) {
+            measurement.add(sizes.get(i), histograms.get(i).getValueAtPercentile(percentile), histograms.get(i));
+        }
+        measurement.ruledOut = ruledOut;
+        measurement.wallNanos = wallNanos;
+        measurement.cpuNanos = cpuNanos;
+        measurement.rejectedSamples = rejectedSamples;
+        return measurement;
+    }
+
+    /**
+     * Returns one line per size with the median, 99th percentile and slowest of its samples.
+     */
+    public String histogramSummary() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < histograms.size(); i++) {
+            sb.append(String.format("  N = %d: %s%n", sizes.get(i), histograms.get(i).summary()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns true if an adaptive measurement stopped doubling early because the times grew far faster
+     * than the expected complexity allows. The sizes it measured are classified as usual.
+     */
+    public boolean wasRuledOut() {
+        return ruledOut;
+    }
+
+    /**
+     * Returns the number of samples that were discarded and taken again because the garbage
+     * collector or the JIT compiler ran during them.
+     */
+    public int getRejectedSamples() {
+        return rejectedSamples;
+    }
+
+    /**
+     * Returns the share of the wall time of the timed calls during which the measuring thread was not running, from 0
+     * (it always ran) to 1, or NaN if the JVM cannot measure thread CPU time. Only samples that were kept count,
+     * and time spent collecting garbage is left out of the wall time. A high value means that
+     * other processes or threads competed for the CPU, so the times are not trustworthy.
+     */
+    public double getContention() {
+        if (cpuNanos < 0 || wallNanos <= 0) {
+            return Double.NaN;
+        }
+        return Math.max(0, 1 - (double) cpuNanos / wallNanos);
+    }
+
+    /**
+     * Returns true if the host was known to be busier than MAXCONTENTION allows (see {@link #getContention()}).
+     */
+    public boolean isContended(double maxContention) {
+        return getContention() > maxContention;
+    }
+}
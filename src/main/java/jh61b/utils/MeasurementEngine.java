@@ -0,0 +1,682 @@
+package jh61b.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * MeasurementEngine takes the running time samples behind {@link RuntimeInstrumentation}.
+ * <p>
+ * At every size it can first make untimed warm-up calls, so that the JIT compiler has settled.
+ * Calls that are too fast to time one by one can be timed in batches, each call on a data structure
+ * of its own, so that every sample is well above the resolution of {@link System#nanoTime}.
+ * Both are opt-in (see {@link MeasurementOptions}).
+ * Data structures are handed to a {@link Blackhole} so that the calls cannot be optimized away.
+ * In adaptive mode, the number of samples and of sizes adapts to the code under test, so that
+ * measuring takes a predictable time. Measurements of a {@link ComplexityBenchmark} can also run
+ * in a fresh JVM.
+ */
+public class MeasurementEngine {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final List<GarbageCollectorMXBean> COLLECTORS = ManagementFactory.getGarbageCollectorMXBeans();
+    private static final CompilationMXBean COMPILER = ManagementFactory.getCompilationMXBean();
+
+    /* An adaptive measurement measures at least this many sizes before its time budget may stop it,
+       since fewer sizes cannot be classified. */
+    private static final int MIN_ADAPTIVE_SIZES = 5;
+
+    /* An adaptive measurement warms up for at least this share of its time budget at its first size,
+       in place of the warm-up that the smallest sizes used to provide, but for no more than
+       JIT_WARMUP_CALLS calls. */
+    private static final int WARMUP_BUDGET_SHARE = 20;
+    private static final int JIT_WARMUP_CALLS = 10_000;
+
+    /* Number of times the allocations of each size are counted. */
+    private static final int ALLOCATION_RUNS = 3;
+
+    /* Number of timed runs of each sequence of operations, of which the median is kept. */
+    private static final int AMORTIZED_RUNS = 5;
+
+    /* Costs per operation are kept in thousandths of the unit of COST, since they are often fractions. */
+    private static final int PER_OPERATION_SCALE = 1000;
+
+    /* Doubling stops once the time grew by this factor more than the expected complexity allows,
+       at two sizes in a row. Jumps like this also happen when a data structure outgrows a cache,
+       so they only save measuring larger sizes; the fit still decides. */
+    private static final double RULE_OUT_FACTOR = 4;
+
+    /**
+     * Returns the mean time in nanoseconds of one call to FUNCTIONTOTEST for every size
+     * 2^SKIP, 2^(SKIP+1), ... below 2^(NUMBEROFDOUBLES + SKIP).
+     * <p>
+     * If <code>options.adaptive</code> is set, the measurement may stop before the largest size
+     * (see {@link MeasurementOptions#adaptive(boolean)}). Once at least MIN_ADAPTIVE_SIZES sizes
+     * are measured, it also stops as soon as the times grew far faster than EXPECTED allows,
+     * unless EXPECTED is null.
+     */
+    static <DS> Measurement measureTimes(Function<Integer, DS> provideDSOfSize, Consumer<DS> functionToTest,
+                                         int numberOfDoubles, MeasurementOptions options,
+                                         RuntimeInstrumentation.ComplexityType expected) {
+        int maxSize = (1 << (numberOfDoubles + RuntimeInstrumentation.SKIP));
+        if (!options.adaptive) {
+            Measurement measurement = new Measurement();
+            for (int currentSize = 1; currentSize < maxSize; currentSize *= 2) {
+                // The usage of the skipped sizes is not recorded either.
+                Measurement target = currentSize >= (1 << RuntimeInstrumentation.SKIP) ? measurement : new Measurement();
+                long[] samples = sampleTimes(provideDSOfSize, functionToTest, currentSize, options, Long.MAX_VALUE, target);
+                target.add(currentSize, mean(samples), histogramOf(samples));
+            }
+            return measurement;
+        }
+
+        long start = System.nanoTime();
+        long deadline = start + options.timeBudgetNanos;
+        int firstSize = 1 << RuntimeInstrumentation.SKIP;
+        warmUp(provideDSOfSize, functionToTest, firstSize, options, start + options.timeBudgetNanos / WARMUP_BUDGET_SHARE);
+
+        Measurement measurement = new Measurement();
+        long previousSpent = 0;
+        for (int currentSize = firstSize; currentSize < maxSize; currentSize *= 2) {
+            long sizeStart = System.nanoTime();
+            long[] samples = sampleTimes(provideDSOfSize, functionToTest, currentSize, options, deadline, measurement);
+            measurement.add(currentSize, mean(samples), histogramOf(samples));
+            if (expected != null && rulesOut(measurement, expected)) {
+                measurement.ruledOut = true;
+                break;
+            }
+
+            // The next size costs at least twice as much, and more if the cost grew faster so far.
+            long now = System.nanoTime();
+            long spent = now - sizeStart;
+            double growth = previousSpent > 0 ? Math.max(2, (double) spent / previousSpent) : 2;
+            previousSpent = spent;
+            if (measurement.sizes.size() >= MIN_ADAPTIVE_SIZES && now + spent * growth > deadline) {
+                break;
+            }
+        }
+        return measurement;
+    }
+
+    /**
+     * Returns the estimated number of bytes retained by the data structure of every size
+     * 2^SKIP, 2^(SKIP+1), ... below 2^(NUMBEROFDOUBLES + SKIP), in place of times.
+     */
+    static <DS> Measurement measureRetainedSizes(Function<Integer, DS> provideDSOfSize, int numberOfDoubles) {
+        Measurement measurement = new Measurement();
+        int maxSize = (1 << (numberOfDoubles + RuntimeInstrumentation.SKIP));
+        for (int currentSize = (1 << RuntimeInstrumentation.SKIP); currentSize < maxSize; currentSize *= 2) {
+            measurement.add(currentSize, ObjectGraphSize.of(provideDSOfSize.apply(currentSize)));
+        }
+        return measurement;
+    }
+
+    /**
+     * Returns the number of bytes allocated by one call to FUNCTIONTOTEST for every size
+     * 2^SKIP, 2^(SKIP+1), ... below 2^(NUMBEROFDOUBLES + SKIP), in place of times. Each size
+     * is measured a few times and the smallest count kept, so that one-off allocations such
+     * as those of class initialization are not counted.
+     */
+    static <DS> Measurement measureAllocations(Function<Integer, DS> provideDSOfSize, Consumer<DS> functionToTest,
+                                               int numberOfDoubles) {
+        if (allocatedBytes() < 0) {
+            throw new RuntimeException("This JVM cannot count allocated bytes.");
+        }
+        Measurement measurement = new Measurement();
+        int maxSize = (1 << (numberOfDoubles + RuntimeInstrumentation.SKIP));
+        for (int currentSize = (1 << RuntimeInstrumentation.SKIP); currentSize < maxSize; currentSize *= 2) {
+            long fewest = Long.MAX_VALUE;
+            for (int i = 0; i < ALLOCATION_RUNS; i++) {
+                DS ds = provideDSOfSize.apply(currentSize);
+                long before = allocatedBytes();
+                functionToTest.accept(ds);
+                fewest = Math.min(fewest, allocatedBytes() - before);
+                Blackhole.consume(ds);
+            }
+            measurement.add(currentSize, fewest);
+        }
+        return measurement;
+    }
+
+    /**
+     * Returns the cost per operation, in thousandths of the unit of COST, of a sequence of N calls
+     * to OPERATION on a data structure from PROVIDEDS, for every N = 2^SKIP, 2^(SKIP+1), ... below
+     * 2^(NUMBEROFDOUBLES + SKIP), in place of times. Timed sequences are run a few times and the
+     * median kept; counted ones are run once, since their counts are exact.
+     */
+    static <DS> Measurement measureAmortized(Supplier<DS> provideDS, Consumer<DS> operation, int numberOfDoubles,
+                                             MeasurementOptions options, RuntimeInstrumentation.Cost cost) {
+        if (cost == RuntimeInstrumentation.Cost.ALLOCATED_BYTES && allocatedBytes() < 0) {
+            throw new RuntimeException("This JVM cannot count allocated bytes.");
+        }
+        int firstSize = 1 << RuntimeInstrumentation.SKIP;
+        if (cost == RuntimeInstrumentation.Cost.TIME) {
+            for (int i = 0; i < options.warmupIterations; i++) {
+                Blackhole.consume(runSequence(provideDS, operation, firstSize, options, cost));
+            }
+        }
+
+        Measurement measurement = new Measurement();
+        int maxSize = (1 << (numberOfDoubles + RuntimeInstrumentation.SKIP));
+        for (int currentSize = firstSize; currentSize < maxSize; currentSize *= 2) {
+            long total;
+            if (cost == RuntimeInstrumentation.Cost.TIME) {
+                List<Long> runs = new ArrayList<>();
+                int rejected = 0;
+                while (runs.size() < AMORTIZED_RUNS) {
+                    long startDisturbances = disturbances();
+                    long run = runSequence(provideDS, operation, currentSize, options, cost);
+                    if (options.rejectDisturbedSamples && disturbances() != startDisturbances
+                            && rejected < options.iterations) {
+                        rejected++;
+                        measurement.rejectedSamples++;
+                        continue;
+                    }
+                    runs.add(run);
+                }
+                runs.sort(null);
+                total = runs.get(runs.size() / 2);
+            } else {
+                total = runSequence(provideDS, operation, currentSize, options, cost);
+            }
+            measurement.add(currentSize, Math.round((double) total * PER_OPERATION_SCALE / currentSize));
+        }
+        return measurement;
+    }
+
+    /**
+     * Returns the total COST of N calls to OPERATION on a fresh data structure from PROVIDEDS.
+     */
+    private static <DS> long runSequence(Supplier<DS> provideDS, Consumer<DS> operation, int n,
+                                         MeasurementOptions options, RuntimeInstrumentation.Cost cost) {
+        DS ds = provideDS.get();
+        long start = costSoFar(cost, options);
+        for (int i = 0; i < n; i++) {
+            operation.accept(ds);
+        }
+        long total = costSoFar(cost, options) - start;
+        Blackhole.consume(ds);
+        return total;
+    }
+
+    private static long costSoFar(RuntimeInstrumentation.Cost cost, MeasurementOptions options) {
+        switch (cost) {
+            case OPERATIONS:
+                return OperationCounter.get();
+            case ALLOCATED_BYTES:
+                return allocatedBytes();
+            default:
+                long cpu = options.cpuTime ? cpuTime() : -1;
+                return cpu >= 0 ? cpu : System.nanoTime();
+        }
+    }
+
+    /**
+     * Returns the mean time in nanoseconds of one call to FUNCTIONTOTEST at size SIZE only.
+     */
+    static <DS> Measurement measureAt(Function<Integer, DS> provideDSOfSize, Consumer<DS> functionToTest,
+                                      int size, MeasurementOptions options) {
+        long start = System.nanoTime();
+        warmUp(provideDSOfSize, functionToTest, size, options, start + options.timeBudgetNanos / WARMUP_BUDGET_SHARE);
+        long deadline = options.adaptive ? start + options.timeBudgetNanos : Long.MAX_VALUE;
+        Measurement measurement = new Measurement();
+        long[] samples = sampleTimes(provideDSOfSize, functionToTest, size, options, deadline, measurement);
+        measurement.add(size, mean(samples), histogramOf(samples));
+        return measurement;
+    }
+
+    /**
+     * Returns <code>options.iterations</code> samples of the time of one call to STUDENTFUNCTION and
+     * as many of REFERENCEFUNCTION, on data structures of size SIZE. The two are sampled in turns,
+     * each going first every other round, so that both see the same JIT state, heap and host load.
+     * If <code>options.adaptive</code> is set, sampling stops early once the time budget is spent.
+     */
+    static <S, R> ReferenceComparison compare(Function<Integer, S> provideStudentDS, Consumer<S> studentFunction,
+                                              Function<Integer, R> provideReferenceDS, Consumer<R> referenceFunction,
+                                              int size, MeasurementOptions options) {
+        long start = System.nanoTime();
+        long deadline = options.adaptive ? start + options.timeBudgetNanos : Long.MAX_VALUE;
+        long warmupDeadline = start + options.timeBudgetNanos / WARMUP_BUDGET_SHARE;
+        warmUp(provideStudentDS, studentFunction, size, options, warmupDeadline);
+        warmUp(provideReferenceDS, referenceFunction, size, options, warmupDeadline + options.timeBudgetNanos / WARMUP_BUDGET_SHARE);
+
+        Measurement usage = new Measurement();
+        Sampler<S> student = new Sampler<>(provideStudentDS, studentFunction, size, options, usage);
+        Sampler<R> reference = new Sampler<>(provideReferenceDS, referenceFunction, size, options, usage);
+        long[] studentSamples = new long[options.iterations];
+        long[] referenceSamples = new long[options.iterations];
+        int taken = 0;
+        while (taken < options.iterations) {
+            if (taken % 2 == 0) {
+                studentSamples[taken] = student.sample();
+                referenceSamples[taken] = reference.sample();
+            } else {
+                referenceSamples[taken] = reference.sample();
+                studentSamples[taken] = student.sample();
+            }
+            taken++;
+            if (taken >= options.minIterations && System.nanoTime() > deadline) {
+                break;
+            }
+        }
+        return new ReferenceComparison(size, Arrays.copyOf(studentSamples, taken), Arrays.copyOf(referenceSamples, taken));
+    }
+
+    /**
+     * Returns true if the times of the last two sizes of MEASUREMENT both grew by far more than EXPECTED
+     * allows, and there are enough sizes to classify.
+     */
+    private static boolean rulesOut(Measurement measurement, RuntimeInstrumentation.ComplexityType expected) {
+        int n = measurement.sizes.size();
+        if (n < MIN_ADAPTIVE_SIZES) {
+            return false;
+        }
+        for (int i = n - 2; i < n; i++) {
+            double growth = (double) measurement.times.get(i) / Math.max(measurement.times.get(0), 1);
+            double allowed = expected.allowedGrowth(measurement.sizes.get(0), measurement.sizes.get(i));
+            if (growth <= RULE_OUT_FACTOR * allowed) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long mean(long[] samples) {
+        return Math.round(Arrays.stream(samples).average().orElse(0));
+    }
+
+    private static LatencyHistogram histogramOf(long[] samples) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long sample : samples) {
+            histogram.record(sample);
+        }
+        return histogram;
+    }
+
+    /**
+     * Makes at least <code>options.warmupIterations</code> untimed calls to FUNCTIONTOTEST on a data
+     * structure of size SIZE, and keeps going until WARMUPDEADLINE or JIT_WARMUP_CALLS calls.
+     */
+    private static <DS> void warmUp(Function<Integer, DS> provideDSOfSize, Consumer<DS> functionToTest,
+                                    int size, MeasurementOptions options, long warmupDeadline) {
+        for (int i = 0; i < options.warmupIterations
+                || (i < JIT_WARMUP_CALLS && System.nanoTime() < warmupDeadline); i++) {
+            DS ds = provideDSOfSize.apply(size);
+            functionToTest.accept(ds);
+            Blackhole.consume(ds);
+        }
+    }
+
+    /**
+     * Returns <code>options.iterations</code> samples of the time in nanoseconds of one call to
+     * FUNCTIONTOTEST on a data structure of size SIZE.
+     * <p>
+     * If <code>options.adaptive</code> is set, returns fewer samples once their mean is known to
+     * within <code>options.targetRelativeError</code>, or once DEADLINE has passed, but never fewer
+     * than <code>options.minIterations</code>.
+     * <p>
+     * Samples are CPU times if <code>options.cpuTime</code> is set and the JVM can measure them.
+     * The wall and CPU time of all timed calls are added to USAGE.
+     * <p>
+     * If <code>options.rejectDisturbedSamples</code> is set, samples during which the garbage
+     * collector or the JIT compiler ran are taken again; USAGE counts how many.
+     */
+    @SuppressWarnings("unchecked")
+    static <DS> long[] sampleTimes(Function<Integer, DS> provideDSOfSize, Consumer<DS> functionToTest,
+                                   int size, MeasurementOptions options, long deadline, Measurement usage) {
+        for (int i = 0; i < options.warmupIterations; i++) {
+            DS ds = provideDSOfSize.apply(size);
+            functionToTest.accept(ds);
+            Blackhole.consume(ds);
+        }
+
+        Sampler<DS> sampler = new Sampler<>(provideDSOfSize, functionToTest, size, options, usage);
+        long[] samples = new long[options.iterations];
+        // Running mean and sum of squared deviations of the samples (Welford's method)
+        double mean = 0;
+        double squares = 0;
+        int taken = 0;
+        while (taken < options.iterations) {
+            long sample = sampler.sample();
+            samples[taken++] = sample;
+
+            double delta = sample - mean;
+            mean += delta / taken;
+            squares += delta * (sample - mean);
+            if (options.adaptive && taken >= Math.max(options.minIterations, 2)) {
+                double standardError = Math.sqrt(squares / (taken - 1) / taken);
+                if (standardError <= options.targetRelativeError * mean || sampler.lastEndTime > deadline) {
+                    break;
+                }
+            }
+        }
+        return Arrays.copyOf(samples, taken);
+    }
+
+    /**
+     * Sampler times calls to a function in batches of calls on data structures of one size.
+     */
+    private static class Sampler<DS> {
+        private final Function<Integer, DS> provideDSOfSize;
+        private final Consumer<DS> functionToTest;
+        private final int size;
+        private final MeasurementOptions options;
+        private final Measurement usage;
+        private final Object[] batch;
+        private int rejected = 0;
+        // System.nanoTime() at the end of the last sample
+        long lastEndTime;
+
+        Sampler(Function<Integer, DS> provideDSOfSize, Consumer<DS> functionToTest, int size,
+                MeasurementOptions options, Measurement usage) {
+            this.provideDSOfSize = provideDSOfSize;
+            this.functionToTest = functionToTest;
+            this.size = size;
+            this.options = options;
+            this.usage = usage;
+            this.batch = new Object[batchSize(provideDSOfSize, functionToTest, size, options)];
+        }
+
+        /**
+         * Returns the time in nanoseconds of one call, timed as the mean of a batch. Batches during
+         * which the garbage collector or the JIT compiler ran are timed again if
+         * <code>options.rejectDisturbedSamples</code> is set, up to <code>options.iterations</code> times.
+         */
+        @SuppressWarnings("unchecked")
+        long sample() {
+            while (true) {
+                for (int j = 0; j < batch.length; j++) {
+                    DS ds = provideDSOfSize.apply(size);
+                    // C a c h e
+                    functionToTest.accept(ds);
+                    batch[j] = ds;
+                }
+                long startDisturbances = disturbances();
+                long startCollectionTime = collectionTime();
+                long startCpuTime = cpuTime();
+                long startTime = System.nanoTime();
+                for (int j = 0; j < batch.length; j++) {
+                    functionToTest.accept((DS) batch[j]);
+                }
+                long endTime = System.nanoTime();
+                long endCpuTime = cpuTime();
+                long endCollectionTime = collectionTime();
+                long endDisturbances = disturbances();
+                long cpu = (startCpuTime < 0 || endCpuTime < 0) ? -1 : endCpuTime - startCpuTime;
+
+                Blackhole.consume(batch);
+                Arrays.fill(batch, null);
+
+                if (options.rejectDisturbedSamples && endDisturbances != startDisturbances
+                        && rejected < options.iterations) {
+                    rejected++;
+                    usage.rejectedSamples++;
+                    continue;
+                }
+                // Time spent collecting garbage is not spent on this thread's CPU, but it is not
+                // lost to other processes either.
+                usage.addUsage(Math.max(0, endTime - startTime - (endCollectionTime - startCollectionTime)), cpu);
+                lastEndTime = endTime;
+                long elapsed = (options.cpuTime && cpu >= 0) ? cpu : endTime - startTime;
+                return Math.round((double) elapsed / batch.length);
+            }
+        }
+    }
+
+    /**
+     * Returns a number that changes whenever the garbage collector or the JIT compiler has run:
+     * the sum of the collection counts of all collectors and of the total compilation time in
+     * milliseconds, all of which only ever grow. Collection times are not needed, since they
+     * cannot grow without the counts growing too.
+     */
+    private static long disturbances() {
+        long disturbances = 0;
+        for (GarbageCollectorMXBean collector : COLLECTORS) {
+            disturbances += Math.max(0, collector.getCollectionCount());
+        }
+        if (COMPILER != null && COMPILER.isCompilationTimeMonitoringSupported()) {
+            disturbances += COMPILER.getTotalCompilationTime();
+        }
+        return disturbances;
+    }
+
+    /**
+     * Returns the total time in nanoseconds that all collectors have spent collecting garbage,
+     * measured in milliseconds by the JVM.
+     */
+    private static long collectionTime() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : COLLECTORS) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Returns the CPU time of the current thread in nanoseconds, or -1 if the JVM cannot measure it.
+     */
+    private static long cpuTime() {
+        if (!THREADS.isCurrentThreadCpuTimeSupported() || !THREADS.isThreadCpuTimeEnabled()) {
+            return -1;
+        }
+        return THREADS.getCurrentThreadCpuTime();
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread, or -1 if the JVM cannot count them.
+     */
+    private static long allocatedBytes() {
+        if (!(THREADS instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Returns how many calls must be timed together for a sample to take at least
+     * <code>options.minBatchNanos</code>.
+     */
+    private static <DS> int batchSize(Function<Integer, DS> provideDSOfSize, Consumer<DS> functionToTest,
+                                      int size, MeasurementOptions options) {
+        if (options.minBatchNanos <= 0 || options.maxBatchSize <= 1) {
+            return 1;
+        }
+        long fastest = Long.MAX_VALUE;
+        long bytes = 0;
+        for (int i = 0; i < 3; i++) {
+            DS ds = provideDSOfSize.apply(size);
+            functionToTest.accept(ds);
+            fastest = Math.min(fastest, RuntimeInstrumentation.timeFunction(ds, functionToTest));
+            if (i == 0) {
+                bytes = ObjectGraphSize.of(ds);
+            }
+            Blackhole.consume(ds);
+        }
+        long batchSize = options.minBatchNanos / Math.max(fastest, 1);
+        // The whole batch is in memory at once.
+        long maxBytes = Math.min(options.maxBatchBytes, Runtime.getRuntime().maxMemory() / 4);
+        batchSize = Math.min(batchSize, maxBytes / Math.max(bytes, 1));
+        return (int) Math.max(1, Math.min(options.maxBatchSize, batchSize));
+    }
+
+    /**
+     * Like {@link #measureTimes}, but for the measurement described by BENCHMARK, which runs in
+     * a fresh JVM if <code>options.fork</code> is set.
+     */
+    @SuppressWarnings("unchecked")
+    static Measurement measureTimes(Class<? extends ComplexityBenchmark<?>> benchmark, int numberOfDoubles,
+                                    MeasurementOptions options, RuntimeInstrumentation.ComplexityType expected) {
+        if (options.fork) {
+            return measureTimesForked(benchmark, numberOfDoubles, options, expected);
+        }
+        ComplexityBenchmark<Object> instance = (ComplexityBenchmark<Object>) newInstance(benchmark);
+        return measureTimes(instance::provideDSOfSize, instance::functionToTest, numberOfDoubles, options, expected);
+    }
+
+    private static Measurement measureTimesForked(Class<? extends ComplexityBenchmark<?>> benchmark,
+                                                  int numberOfDoubles, MeasurementOptions options,
+                                                  RuntimeInstrumentation.ComplexityType expected) {
+        Process process = null;
+        Path resultFile = null;
+        try {
+            // The results come back in a file rather than on stdout, where the code under test
+            // could garble or forge them by printing.
+            resultFile = Files.createTempFile("jh61b-measurement", ".txt");
+            List<String> command = new ArrayList<>();
+            command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+            command.addAll(options.forkJvmArgs);
+            command.add("-cp");
+            command.add(forkClasspath(benchmark));
+            command.add(MeasurementEngine.class.getName());
+            command.add(resultFile.toString());
+            command.add(benchmark.getName());
+            command.add(Integer.toString(numberOfDoubles));
+            command.add(expected == null ? "-" : expected.name());
+            command.addAll(options.toArgs());
+
+            // Output of the code under test is dropped, as it would be if it ran in this JVM
+            // without a test capturing it; the caller's stdout may carry results.
+            process = new ProcessBuilder(command)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            if (!process.waitFor(options.forkTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                throw new RuntimeException("Forked measurement of " + benchmark.getName() + " did not finish within "
+                        + TimeUnit.NANOSECONDS.toSeconds(options.forkTimeoutNanos) + " s");
+            }
+            int exitCode = process.exitValue();
+            String result = new String(Files.readAllBytes(resultFile), StandardCharsets.UTF_8).trim();
+            if (exitCode != 0 || result.isEmpty()) {
+                throw new RuntimeException("Forked measurement of " + benchmark.getName()
+                        + " failed with exit code " + exitCode);
+            }
+            return parseResult(result);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            // Leaves no JVM behind on a timeout, an interrupt or any other failure.
+            if (process != null && process.isAlive()) {
+                process.destroyForcibly();
+            }
+            if (resultFile != null) {
+                try {
+                    Files.deleteIfExists(resultFile);
+                } catch (IOException e) {
+                    // Left for the system to clean up with the other temporary files
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the classpath of this JVM, preceded by the classpath of the class loader of BENCHMARK
+     * if it was loaded from elsewhere (e.g. from a submission graded in batch).
+     */
+    private static String forkClasspath(Class<?> benchmark) {
+        StringBuilder classpath = new StringBuilder();
+        ClassLoader loader = benchmark.getClassLoader();
+        if (loader instanceof URLClassLoader) {
+            for (URL url : ((URLClassLoader) loader).getURLs()) {
+                try {
+                    classpath.append(Paths.get(url.toURI())).append(File.pathSeparator);
+                } catch (URISyntaxException | IllegalArgumentException e) {
+                    // Not a local file, so the forked JVM could not use it anyway
+                }
+            }
+        }
+        return classpath.append(System.getProperty("java.class.path")).toString();
+    }
+
+    private static Object newInstance(Class<?> benchmark) {
+        try {
+            return benchmark.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Could not create benchmark " + benchmark.getName(), e);
+        }
+    }
+
+    /**
+     * Returns MEASUREMENT as the line written by a forked measurement: the word "ruledOut" if
+     * it stopped early, the wall and CPU time, and size:time:histogram triples. The inverse of {@link #parseResult}.
+     */
+    static String formatResult(Measurement measurement) {
+        StringBuilder sb = new StringBuilder();
+        if (measurement.ruledOut) {
+            sb.append("ruledOut ");
+        }
+        sb.append("wall=").append(measurement.wallNanos).append(" cpu=").append(measurement.cpuNanos);
+        sb.append(" rejected=").append(measurement.rejectedSamples);
+        for (int i = 0; i < measurement.sizes.size(); i++) {
+            sb.append(' ').append(measurement.sizes.get(i)).append(':').append(measurement.times.get(i));
+            if (i < measurement.histograms.size()) {
+                sb.append(":").append(measurement.histograms.get(i).format());
+            }
+        }
+        return sb.toString();
+    }
+
+    static Measurement parseResult(String result) {
+        Measurement measurement = new Measurement();
+        for (String token : result.split(" ")) {
+            if (token.equals("ruledOut")) {
+                measurement.ruledOut = true;
+            } else if (token.startsWith("wall=")) {
+                measurement.wallNanos = Long.parseLong(token.substring("wall=".length()));
+            } else if (token.startsWith("cpu=")) {
+                measurement.cpuNanos = Long.parseLong(token.substring("cpu=".length()));
+            } else if (token.startsWith("rejected=")) {
+                measurement.rejectedSamples = Integer.parseInt(token.substring("rejected=".length()));
+            } else if (!token.isEmpty()) {
+                String[] parts = token.split(":");
+                measurement.add(Integer.parseInt(parts[0]), Long.parseLong(parts[1]));
+                if (parts.length > 2) {
+                    measurement.histograms.add(LatencyHistogram.parse(parts[2]));
+                }
+            }
+        }
+        return measurement;
+    }
+
+    /**
+     * Entry point of forked measurements: runs the {@link ComplexityBenchmark} named by the second
+     * argument and writes the measured times to the file named by the first.
+     */
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) throws ClassNotFoundException, IOException {
+        Path resultFile = Paths.get(args[0]);
+        ComplexityBenchmark<Object> benchmark = (ComplexityBenchmark<Object>) newInstance(Class.forName(args[1]));
+        int numberOfDoubles = Integer.parseInt(args[2]);
+        RuntimeInstrumentation.ComplexityType expected =
+                args[3].equals("-") ? null : RuntimeInstrumentation.ComplexityType.valueOf(args[3]);
+        MeasurementOptions options = MeasurementOptions.fromArgs(args, 4);
+
+        Measurement measurement = measureTimes(benchmark::provideDSOfSize, benchmark::functionToTest,
+                numberOfDoubles, options, expected);
+        Files.write(resultFile, formatResult(measurement).getBytes(StandardCharsets.UTF_8));
+        // Threads that the code under test left running must not keep this JVM alive.
+        System.exit(0);
+    }
+}
@@ -0,0 +1,248 @@
+package jh61b.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MeasurementOptions controls how {@link RuntimeInstrumentation} measures running times.
+ * The defaults cost what the measurements that <code>getEmpiricalComplexity</code> has always made
+ * cost: one data structure is built per sample, and nothing is warmed up or batched. Warm-up and
+ * batching are opt-in, since they multiply the number of data structures that are built. Setters
+ * return this, so options can be chained:
+ * <pre>
+ * new MeasurementOptions().iterations(50).fork(true)
+ * new MeasurementOptions().warmupIterations(20).minBatchNanos(20_000).maxBatchSize(1000)
+ * </pre>
+ */
+public class MeasurementOptions {
+    int warmupIterations = 0;
+    int iterations = 100;
+    long minBatchNanos = 0;
+    int maxBatchSize = 1;
+    long maxBatchBytes = 64L << 20;
+    boolean adaptive = false;
+    long timeBudgetNanos = 5_000_000_000L;
+    int minIterations = 10;
+    double targetRelativeError = 0.02;
+    boolean rejectDisturbedSamples = true;
+    boolean cpuTime = false;
+    double maxContention = 0.5;
+    int contendedRetries = 2;
+    boolean fork = false;
+    List<String> forkJvmArgs = new ArrayList<>();
+    long forkTimeoutNanos = 10 * 60 * 1_000_000_000L;
+
+    /**
+     * Number of untimed calls made at every size before measuring, so that the JIT compiler has
+     * compiled the code under test by the time it is timed.
+     */
+    public MeasurementOptions warmupIterations(int warmupIterations) {
+        this.warmupIterations = warmupIterations;
+        return this;
+    }
+
+    /**
+     * Number of timed samples taken at every size.
+     */
+    public MeasurementOptions iterations(int iterations) {
+        this.iterations = iterations;
+        return this;
+    }
+
+    /**
+     * Calls that take less than this many nanoseconds are timed in batches of up to
+     * <code>maxBatchSize</code> calls, so that each sample is well above the timer resolution.
+     * 0, the default, times every call on its own.
+     */
+    public MeasurementOptions minBatchNanos(long minBatchNanos) {
+        this.minBatchNanos = minBatchNanos;
+        return this;
+    }
+
+    /**
+     * Maximum number of calls timed together; each call gets a data structure of its own,
+     * so all of them are kept in memory at once.
+     */
+    public MeasurementOptions maxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * Maximum number of bytes that the data structures of one batch may retain together, as
+     * estimated for the first of them. Keeps batches of large data structures from running out
+     * of memory, whatever <code>maxBatchSize</code> allows. Also never more than a quarter of
+     * the maximum heap.
+     */
+    public MeasurementOptions maxBatchBytes(long maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+        return this;
+    }
+
+    /**
+     * If true, measuring adapts to the code under test, so that its wall-clock cost is predictable:
+     * <ul>
+     * <li>sizes whose times would be discarded anyway are not measured;</li>
+     * <li>at every size, sampling stops as soon as the mean is known to within
+     * <code>targetRelativeError</code>, after at least <code>minIterations</code> and at most
+     * <code>iterations</code> samples;</li>
+     * <li>doubling the size stops once <code>timeBudgetNanos</code> is spent or the next size
+     * would not fit in it, and, when there is an expected complexity, as soon as the times grew
+     * far too fast for it. Whether the times fit is then decided as usual.</li>
+     * </ul>
+     */
+    public MeasurementOptions adaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+        return this;
+    }
+
+    /**
+     * Wall-clock time that an adaptive measurement may take, in nanoseconds.
+     */
+    public MeasurementOptions timeBudgetNanos(long timeBudgetNanos) {
+        this.timeBudgetNanos = timeBudgetNanos;
+        return this;
+    }
+
+    /**
+     * Number of samples taken at every size before an adaptive measurement may stop sampling it.
+     */
+    public MeasurementOptions minIterations(int minIterations) {
+        this.minIterations = minIterations;
+        return this;
+    }
+
+    /**
+     * Standard error of the mean, relative to the mean, at which an adaptive measurement stops sampling a size.
+     */
+    public MeasurementOptions targetRelativeError(double targetRelativeError) {
+        this.targetRelativeError = targetRelativeError;
+        return this;
+    }
+
+    /**
+     * If true, samples during which the garbage collector or the JIT compiler ran are discarded
+     * and taken again, up to <code>iterations</code> times per size, since their times say more
+     * about the JVM than about the code under test.
+     */
+    public MeasurementOptions rejectDisturbedSamples(boolean rejectDisturbedSamples) {
+        this.rejectDisturbedSamples = rejectDisturbedSamples;
+        return this;
+    }
+
+    /**
+     * If true, samples are the CPU time of the measuring thread rather than wall time, so that
+     * time during which other processes had the CPU is not counted. Falls back to wall time if
+     * the JVM cannot measure thread CPU time.
+     */
+    public MeasurementOptions cpuTime(boolean cpuTime) {
+        this.cpuTime = cpuTime;
+        return this;
+    }
+
+    /**
+     * Largest share of the wall time during which the measuring thread may not have been running
+     * (see {@link Measurement#getContention()}) for <code>assertAtMost</code> to trust a measurement.
+     * A measurement on a busier host is repeated up to <code>contendedRetries</code> times, after
+     * which the test is reported as inconclusive (see {@link jh61b.grader.InconclusiveTestException}):
+     * it gets no credit, and the submission should be graded again. 1 trusts every measurement.
+     */
+    public MeasurementOptions maxContention(double maxContention) {
+        this.maxContention = maxContention;
+        return this;
+    }
+
+    /**
+     * Number of times <code>assertAtMost</code> repeats a measurement taken on a host that was too busy.
+     */
+    public MeasurementOptions contendedRetries(int contendedRetries) {
+        this.contendedRetries = contendedRetries;
+        return this;
+    }
+
+    /**
+     * If true, measurements of a {@link ComplexityBenchmark} run in a fresh JVM, so that neither
+     * the JIT profile nor the heap left behind by earlier tests affect them.
+     */
+    public MeasurementOptions fork(boolean fork) {
+        this.fork = fork;
+        return this;
+    }
+
+    /**
+     * Extra arguments for the forked JVM, e.g. <code>-Xmx1g</code>.
+     */
+    public MeasurementOptions forkJvmArgs(List<String> forkJvmArgs) {
+        this.forkJvmArgs = new ArrayList<>(forkJvmArgs);
+        return this;
+    }
+
+    /**
+     * Time after which a forked measurement is stopped and its JVM killed, in nanoseconds.
+     */
+    public MeasurementOptions forkTimeoutNanos(long forkTimeoutNanos) {
+        this.forkTimeoutNanos = forkTimeoutNanos;
+        return this;
+    }
+
+    /**
+     * Returns a copy of these options that times every call on its own, for measurements whose
+     * per-call times matter, such as percentiles: the mean of a batch would hide its slowest call.
+     */
+    MeasurementOptions perCall() {
+        return new MeasurementOptions()
+                .warmupIterations(warmupIterations)
+                .iterations(iterations)
+                .minBatchNanos(0)
+                .maxBatchSize(1)
+                .maxBatchBytes(maxBatchBytes)
+                .adaptive(adaptive)
+                .timeBudgetNanos(timeBudgetNanos)
+                .minIterations(minIterations)
+                .targetRelativeError(targetRelativeError)
+                .rejectDisturbedSamples(rejectDisturbedSamples)
+                .cpuTime(cpuTime)
+                .maxContention(maxContention)
+                .contendedRetries(contendedRetries)
+                .fork(fork)
+                .forkJvmArgs(forkJvmArgs)
+                .forkTimeoutNanos(forkTimeoutNanos);
+    }
+
+    /**
+     * Returns the options that matter inside a forked JVM as command line arguments.
+     * The inverse of {@link #fromArgs}.
+     */
+    List<String> toArgs() {
+        return List.of(
+                Integer.toString(warmupIterations),
+                Integer.toString(iterations),
+                Long.toString(minBatchNanos),
+                Integer.toString(maxBatchSize),
+                Boolean.toString(adaptive),
+                Long.toString(timeBudgetNanos),
+                Integer.toString(minIterations),
+                Double.toString(targetRelativeError),
+                Boolean.toString(cpuTime),
+                Boolean.toString(rejectDisturbedSamples),
+                Long.toString(maxBatchBytes));
+    }
+
+    /**
+     * Reads options written by {@link #toArgs} from ARGS, starting at index FROM.
+     */
+    static MeasurementOptions fromArgs(String[] args, int from) {
+        return new MeasurementOptions()
+                .warmupIterations(Integer.parseInt(args[from]))
+                .iterations(Integer.parseInt(args[from + 1]))
+                .minBatchNanos(Long.parseLong(args[from + 2]))
+                .maxBatchSize(Integer.parseInt(args[from + 3]))
+                .adaptive(Boolean.parseBoolean(args[from + 4]))
+                .timeBudgetNanos(Long.parseLong(args[from + 5]))
+                .minIterations(Integer.parseInt(args[from + 6]))
+                .targetRelativeError(Double.parseDouble(args[from + 7]))
+                .cpuTime(Boolean.parseBoolean(args[from + 8]))
+                .rejectDisturbedSamples(Boolean.parseBoolean(args[from + 9]))
+                .maxBatchBytes(Long.parseLong(args[from + 10]));
+    }
+}
@@ -0,0 +1,548 @@
+package jh61b.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * MethodEntryInstrumenter rewrites class files so that every method with a body starts by calling
+ * {@link OperationCounter#count()}, and calls it again before every goto or if instruction that jumps
+ * backwards, so that each iteration of a loop counts too.
+ * <p>
+ * Each call is inserted as <code>invokestatic</code> followed by a <code>nop</code>, four bytes in all,
+ * so that the padding of switch instructions, which is aligned to multiples of four, does not change.
+ * The offsets of branches and switches, the exception table, and the LineNumberTable,
+ * LocalVariableTable, LocalVariableTypeTable and StackMapTable attributes are moved past the inserted
+ * calls. Methods with any other attribute on their code, whose code would grow too large, or with a
+ * branch that would no longer reach its target, are left as they are.
+ */
+class MethodEntryInstrumenter {
+    private static final String COUNTER_CLASS = OperationCounter.class.getName().replace('.', '/');
+    private static final int INSERTED_BYTES = 4;
+    private static final int MAX_CODE_LENGTH = 65535;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private static final int NOP = 0x00;
+    private static final int IINC = 0x84;
+    private static final int IFEQ = 0x99;
+    private static final int GOTO = 0xa7;
+    private static final int JSR = 0xa8;
+    private static final int TABLESWITCH = 0xaa;
+    private static final int LOOKUPSWITCH = 0xab;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int WIDE = 0xc4;
+    private static final int IFNULL = 0xc6;
+    private static final int IFNONNULL = 0xc7;
+    private static final int GOTO_W = 0xc8;
+    private static final int JSR_W = 0xc9;
+
+    /* Length of every instruction of fixed length, indexed by opcode; 0 for the others. */
+    private static final int[] INSTRUCTION_LENGTHS = new int[JSR_W + 1];
+    static {
+        Arrays.fill(INSTRUCTION_LENGTHS, 1);
+        for (int opcode : new int[] {0x10, 0x12, 0x15, 0x16, 0x17, 0x18, 0x19, 0x36, 0x37, 0x38, 0x39, 0x3a, 0xa9, 0xbc}) {
+            INSTRUCTION_LENGTHS[opcode] = 2;
+        }
+        for (int opcode : new int[] {0x11, 0x13, 0x14, IINC, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, INVOKESTATIC,
+                0xbb, 0xbd, 0xc0, 0xc1, IFNULL, IFNONNULL}) {
+            INSTRUCTION_LENGTHS[opcode] = 3;
+        }
+        for (int opcode = IFEQ; opcode <= JSR; opcode++) {
+            INSTRUCTION_LENGTHS[opcode] = 3;
+        }
+        INSTRUCTION_LENGTHS[0xc5] = 4;
+        for (int opcode : new int[] {0xb9, 0xba, GOTO_W, JSR_W}) {
+            INSTRUCTION_LENGTHS[opcode] = 5;
+        }
+        for (int opcode : new int[] {TABLESWITCH, LOOKUPSWITCH, WIDE}) {
+            INSTRUCTION_LENGTHS[opcode] = 0;
+        }
+    }
+
+    private static final int SAME_LOCALS_1_STACK_ITEM_EXTENDED = 247;
+    private static final int SAME_FRAME_EXTENDED = 251;
+    private static final int FULL_FRAME = 255;
+    private static final int ITEM_OBJECT = 7;
+    private static final int ITEM_UNINITIALIZED = 8;
+
+    private final ByteBuffer in;
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private String[] utf8;
+    private int countMethodref;
+    // Offsets of the backward branches of the method being rewritten
+    private int[] loops;
+    private boolean changed = false;
+
+    private MethodEntryInstrumenter(byte[] classfile) {
+        in = ByteBuffer.wrap(classfile);
+        out = new DataOutputStream(bytes);
+    }
+
+    /**
+     * Returns CLASSFILE with calls to {@link OperationCounter#count()} at the start of each method
+     * and in each loop, or null if no method could be instrumented.
+     */
+    static byte[] instrument(byte[] classfile) {
+        try {
+            return new MethodEntryInstrumenter(classfile).rewrite();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private byte[] rewrite() throws IOException {
+        out.writeInt(in.getInt());
+        out.writeShort(u2());
+        out.writeShort(u2());
+        copyConstantPool();
+        copy(6);
+        copy(2 * u2(true));
+        int fieldsCount = u2(true);
+        for (int i = 0; i < fieldsCount; i++) {
+            copy(6);
+            copyAttributes();
+        }
+        int methodsCount = u2(true);
+        for (int i = 0; i < methodsCount; i++) {
+            copy(6);
+            rewriteMethodAttributes();
+        }
+        copyAttributes();
+        return changed ? bytes.toByteArray() : null;
+    }
+
+    /**
+     * Copies the constant pool, with the entries for the Methodref of OperationCounter.count()
+     * appended to it.
+     */
+    private void copyConstantPool() throws IOException {
+        int count = u2();
+        if (count + 6 > 0xffff) {
+            throw new IllegalArgumentException("Constant pool too large to instrument");
+        }
+        utf8 = new String[count];
+        ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        DataOutputStream poolOut = new DataOutputStream(pool);
+        for (int i = 1; i < count; i++) {
+            int tag = u1();
+            poolOut.writeByte(tag);
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    int start = in.position();
+                    int length = u2();
+                    utf8[i] = new DataInputStream(new ByteArrayInputStream(in.array(), start, 2 + length)).readUTF();
+                    poolOut.writeShort(length);
+                    copyTo(poolOut, length);
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    copyTo(poolOut, 8);
+                    // Longs and doubles take up two entries
+                    i++;
+                    break;
+                case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+                    copyTo(poolOut, 4);
+                    break;
+                case 15:
+                    copyTo(poolOut, 3);
+                    break;
+                case 7: case 8: case 16: case 19: case 20:
+                    copyTo(poolOut, 2);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown constant pool tag " + tag);
+            }
+        }
+
+        int className = count;
+        poolOut.writeByte(CONSTANT_UTF8);
+        poolOut.writeUTF(COUNTER_CLASS);
+        int classRef = count + 1;
+        poolOut.writeByte(CONSTANT_CLASS);
+        poolOut.writeShort(className);
+        int methodName = count + 2;
+        poolOut.writeByte(CONSTANT_UTF8);
+        poolOut.writeUTF("count");
+        int descriptor = count + 3;
+        poolOut.writeByte(CONSTANT_UTF8);
+        poolOut.writeUTF("()V");
+        int nameAndType = count + 4;
+        poolOut.writeByte(CONSTANT_NAME_AND_TYPE);
+        poolOut.writeShort(methodName);
+        poolOut.writeShort(descriptor);
+        countMethodref = count + 5;
+        poolOut.writeByte(CONSTANT_METHODREF);
+        poolOut.writeShort(classRef);
+        poolOut.writeShort(nameAndType);
+
+        out.writeShort(count + 6);
+        pool.writeTo(out);
+    }
+
+    private void rewriteMethodAttributes() throws IOException {
+        int count = u2(true);
+        for (int i = 0; i < count; i++) {
+            int nameIndex = u2(true);
+            int length = in.getInt();
+            if (!"Code".equals(utf8[nameIndex])) {
+                out.writeInt(length);
+                copy(length);
+                continue;
+            }
+            byte[] code = new byte[length];
+            in.get(code);
+            byte[] rewritten = rewriteCode(ByteBuffer.wrap(code));
+            if (rewritten == null) {
+                out.writeInt(length);
+                out.write(code);
+            } else {
+                out.writeInt(rewritten.length);
+                out.write(rewritten);
+                changed = true;
+            }
+        }
+    }
+
+    /**
+     * Returns the Code attribute CODE with the calls inserted, or null if it cannot be instrumented.
+     */
+    private byte[] rewriteCode(ByteBuffer code) throws IOException {
+        ByteArrayOutputStream rewritten = new ByteArrayOutputStream();
+        DataOutputStream codeOut = new DataOutputStream(rewritten);
+        codeOut.writeShort(code.getShort());
+        codeOut.writeShort(code.getShort());
+        byte[] instructions = new byte[code.getInt()];
+        code.get(instructions);
+        loops = backwardBranches(instructions);
+        byte[] relocated = relocate(instructions);
+        if (relocated == null) {
+            return null;
+        }
+        codeOut.writeInt(relocated.length);
+        codeOut.write(relocated);
+
+        int exceptions = code.getShort() & 0xffff;
+        codeOut.writeShort(exceptions);
+        for (int i = 0; i < exceptions; i++) {
+            for (int j = 0; j < 3; j++) {
+                codeOut.writeShort(moved(code.getShort() & 0xffff));
+            }
+            codeOut.writeShort(code.getShort());
+        }
+
+        int attributes = code.getShort() & 0xffff;
+        codeOut.writeShort(attributes);
+        for (int i = 0; i < attributes; i++) {
+            int nameIndex = code.getShort() & 0xffff;
+            int length = code.getInt();
+            ByteBuffer attribute = code.slice();
+            attribute.limit(length);
+            code.position(code.position() + length);
+            byte[] moved;
+            switch (String.valueOf(utf8[nameIndex])) {
+                case "LineNumberTable":
+                    moved = moveLineNumbers(attribute);
+                    break;
+                case "LocalVariableTable":
+                case "LocalVariableTypeTable":
+                    moved = moveLocalVariables(attribute);
+                    break;
+                case "StackMapTable":
+                    moved = moveFrames(attribute);
+                    break;
+                default:
+                    return null;
+            }
+            codeOut.writeShort(nameIndex);
+            codeOut.writeInt(moved.length);
+            codeOut.write(moved);
+        }
+        return rewritten.toByteArray();
+    }
+
+    /**
+     * Returns the offsets of the goto and if instructions in CODE that jump backwards (or to
+     * themselves), in increasing order.
+     */
+    private static int[] backwardBranches(byte[] code) {
+        ByteBuffer buffer = ByteBuffer.wrap(code);
+        List<Integer> branches = new ArrayList<>();
+        for (int pc = 0; pc < code.length; pc += instructionLength(code, pc)) {
+            int opcode = code[pc] & 0xff;
+            if ((opcode >= IFEQ && opcode <= GOTO || opcode == IFNULL || opcode == IFNONNULL)
+                    && buffer.getShort(pc + 1) <= 0) {
+                branches.add(pc);
+            } else if (opcode == GOTO_W && buffer.getInt(pc + 1) <= 0) {
+                branches.add(pc);
+            }
+        }
+        int[] offsets = new int[branches.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = branches.get(i);
+        }
+        return offsets;
+    }
+
+    /**
+     * Returns where the instruction at OFFSET of the original code ends up, or where the code
+     * ends if OFFSET is its length. A call inserted before a backward branch takes the place of
+     * the branch, so that jumps to the branch run the call as well.
+     */
+    private int moved(int offset) {
+        int loopsBefore = Arrays.binarySearch(loops, offset);
+        if (loopsBefore < 0) {
+            loopsBefore = -loopsBefore - 1;
+        }
+        return offset + INSERTED_BYTES * (1 + loopsBefore);
+    }
+
+    /**
+     * Returns CODE with a call at its start and before each backward branch, and every branch
+     * offset adjusted to the moved instructions, or null if the result does not fit in a method.
+     */
+    private byte[] relocate(byte[] code) {
+        if (moved(code.length) > MAX_CODE_LENGTH) {
+            return null;
+        }
+        ByteBuffer from = ByteBuffer.wrap(code);
+        ByteBuffer to = ByteBuffer.allocate(moved(code.length));
+        putCount(to);
+        int loop = 0;
+        for (int pc = 0; pc < code.length; pc += instructionLength(code, pc)) {
+            if (loop < loops.length && loops[loop] == pc) {
+                putCount(to);
+                loop++;
+            }
+            int newPc = to.position();
+            int opcode = code[pc] & 0xff;
+            if (opcode >= IFEQ && opcode <= JSR || opcode == IFNULL || opcode == IFNONNULL) {
+                int offset = moved(pc + from.getShort(pc + 1)) - newPc;
+                if (offset != (short) offset) {
+                    return null;
+                }
+                to.put((byte) opcode).putShort((short) offset);
+            } else if (opcode == GOTO_W || opcode == JSR_W) {
+                to.put((byte) opcode).putInt(moved(pc + from.getInt(pc + 1)) - newPc);
+            } else if (opcode == TABLESWITCH || opcode == LOOKUPSWITCH) {
+                // Every call takes a multiple of four bytes, so the padding stays the same.
+                int operands = (pc + 4) & ~3;
+                to.put(code, pc, operands - pc);
+                to.putInt(moved(pc + from.getInt(operands)) - newPc);
+                if (opcode == TABLESWITCH) {
+                    int low = from.getInt(operands + 4);
+                    int high = from.getInt(operands + 8);
+                    to.putInt(low).putInt(high);
+                    for (int i = 0; i < high - low + 1; i++) {
+                        to.putInt(moved(pc + from.getInt(operands + 12 + 4 * i)) - newPc);
+                    }
+                } else {
+                    int pairs = from.getInt(operands + 4);
+                    to.putInt(pairs);
+                    for (int i = 0; i < pairs; i++) {
+                        to.putInt(from.getInt(operands + 8 + 8 * i));
+                        to.putInt(moved(pc + from.getInt(operands + 12 + 8 * i)) - newPc);
+                    }
+                }
+            } else {
+                to.put(code, pc, instructionLength(code, pc));
+            }
+        }
+        return to.array();
+    }
+
+    private void putCount(ByteBuffer to) {
+        to.put((byte) INVOKESTATIC).putShort((short) countMethodref).put((byte) NOP);
+    }
+
+    /**
+     * Returns the length in bytes of the instruction at PC.
+     */
+    private static int instructionLength(byte[] code, int pc) {
+        int opcode = code[pc] & 0xff;
+        switch (opcode) {
+            case TABLESWITCH: {
+                ByteBuffer buffer = ByteBuffer.wrap(code);
+                int operands = (pc + 4) & ~3;
+                return operands - pc + 12 + 4 * (buffer.getInt(operands + 8) - buffer.getInt(operands + 4) + 1);
+            }
+            case LOOKUPSWITCH: {
+                int operands = (pc + 4) & ~3;
+                return operands - pc + 8 + 8 * ByteBuffer.wrap(code).getInt(operands + 4);
+            }
+            case WIDE:
+                return (code[pc + 1] & 0xff) == IINC ? 6 : 4;
+            default:
+                if (opcode >= INSTRUCTION_LENGTHS.length || INSTRUCTION_LENGTHS[opcode] == 0) {
+                    throw new IllegalArgumentException("Unknown opcode " + opcode + " at " + pc);
+                }
+                return INSTRUCTION_LENGTHS[opcode];
+        }
+    }
+
+    /**
+     * Returns a LineNumberTable with every start offset moved.
+     */
+    private byte[] moveLineNumbers(ByteBuffer table) {
+        ByteBuffer moved = ByteBuffer.allocate(table.remaining());
+        int entries = table.getShort() & 0xffff;
+        moved.putShort((short) entries);
+        for (int i = 0; i < entries; i++) {
+            moved.putShort((short) moved(table.getShort() & 0xffff));
+            moved.putShort(table.getShort());
+        }
+        return moved.array();
+    }
+
+    /**
+     * Returns a LocalVariableTable or LocalVariableTypeTable with the range of every variable moved.
+     */
+    private byte[] moveLocalVariables(ByteBuffer table) {
+        ByteBuffer moved = ByteBuffer.allocate(table.remaining());
+        int entries = table.getShort() & 0xffff;
+        moved.putShort((short) entries);
+        for (int i = 0; i < entries; i++) {
+            int start = table.getShort() & 0xffff;
+            int length = table.getShort() & 0xffff;
+            moved.putShort((short) moved(start));
+            moved.putShort((short) (moved(start + length) - moved(start)));
+            moved.putShort(table.getShort());
+            moved.putShort(table.getShort());
+            moved.putShort(table.getShort());
+        }
+        return moved.array();
+    }
+
+    /**
+     * Returns a StackMapTable with every frame moved. Frames store their offset relative to the
+     * frame before them, so the offsets are made absolute, moved and made relative again, which
+     * may need the extended form of a frame whose relative offset grew past 63.
+     */
+    private byte[] moveFrames(ByteBuffer table) throws IOException {
+        ByteArrayOutputStream moved = new ByteArrayOutputStream();
+        DataOutputStream movedOut = new DataOutputStream(moved);
+        int entries = table.getShort() & 0xffff;
+        movedOut.writeShort(entries);
+        int offset = -1;
+        int movedOffset = -1;
+        for (int i = 0; i < entries; i++) {
+            int type = table.get() & 0xff;
+            int delta;
+            if (type < 128) {
+                // same_frame and same_locals_1_stack_item_frame store the offset in their type
+                delta = type % 64;
+            } else if (type >= SAME_LOCALS_1_STACK_ITEM_EXTENDED) {
+                delta = table.getShort() & 0xffff;
+            } else {
+                throw new IllegalArgumentException("Unknown stack map frame type " + type);
+            }
+            offset += delta + 1;
+            int movedDelta = moved(offset) - movedOffset - 1;
+            movedOffset = moved(offset);
+
+            if (type < 64) {
+                if (movedDelta < 64) {
+                    movedOut.writeByte(movedDelta);
+                } else {
+                    movedOut.writeByte(SAME_FRAME_EXTENDED);
+                    movedOut.writeShort(movedDelta);
+                }
+            } else if (type < 128) {
+                if (movedDelta < 64) {
+                    movedOut.writeByte(64 + movedDelta);
+                } else {
+                    movedOut.writeByte(SAME_LOCALS_1_STACK_ITEM_EXTENDED);
+                    movedOut.writeShort(movedDelta);
+                }
+                moveVerificationTypes(table, movedOut, 1);
+            } else {
+                movedOut.writeByte(type);
+                movedOut.writeShort(movedDelta);
+                if (type == SAME_LOCALS_1_STACK_ITEM_EXTENDED) {
+                    moveVerificationTypes(table, movedOut, 1);
+                } else if (type > SAME_FRAME_EXTENDED && type < FULL_FRAME) {
+                    // append_frame, with one to three more locals
+                    moveVerificationTypes(table, movedOut, type - SAME_FRAME_EXTENDED);
+                } else if (type == FULL_FRAME) {
+                    for (int j = 0; j < 2; j++) {
+                        int count = table.getShort() & 0xffff;
+                        movedOut.writeShort(count);
+                        moveVerificationTypes(table, movedOut, count);
+                    }
+                }
+            }
+        }
+        return moved.toByteArray();
+    }
+
+    /**
+     * Copies COUNT verification types, moving the offsets of the <code>new</code> instructions
+     * that uninitialized types refer to.
+     */
+    private void moveVerificationTypes(ByteBuffer table, DataOutputStream out, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            int tag = table.get() & 0xff;
+            out.writeByte(tag);
+            if (tag == ITEM_OBJECT) {
+                out.writeShort(table.getShort());
+            } else if (tag == ITEM_UNINITIALIZED) {
+                out.writeShort(moved(table.getShort() & 0xffff));
+            }
+        }
+    }
+
+    private void copyAttributes() throws IOException {
+        int count = u2(true);
+        for (int i = 0; i < count; i++) {
+            copy(2);
+            int length = in.getInt();
+            out.writeInt(length);
+            copy(length);
+        }
+    }
+
+    private int u1() {
+        return in.get() & 0xff;
+    }
+
+    private int u2() {
+        return in.getShort() & 0xffff;
+    }
+
+    /**
+     * Reads an unsigned 2-byte value and, if COPY is set, copies it to the output.
+     */
+    private int u2(boolean copy) throws IOException {
+        int value = u2();
+        if (copy) {
+            out.writeShort(value);
+        }
+        return value;
+    }
+
+    private void copy(int length) throws IOException {
+        copyTo(in, out, length);
+    }
+
+    private void copyTo(DataOutputStream to, int length) throws IOException {
+        copyTo(in, to, length);
+    }
+
+    private static void copyTo(ByteBuffer from, DataOutputStream to, int length) throws IOException {
+        byte[] data = new byte[length];
+        from.get(data);
+        to.write(data);
+    }
+}
@@ -0,0 +1,214 @@
+package jh61b.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ObjectGraphSize estimates the number of bytes retained by an object: the sum of the sizes of all
+ * objects reachable from it through instance fields and array elements, each counted once.
+ * <p>
+ * Sizes follow the HotSpot object layout: an object header, then its fields, rounded up to a multiple
+ * of 8 bytes. Classes, class loaders and threads are shared with the rest of the JVM, so they are
+ * not counted.
+ * <p>
+ * Since JDK 16, the fields of JDK classes cannot be made accessible, so the internals of e.g. an
+ * ArrayList or a HashMap cannot be walked. Collections, maps and strings are then walked through
+ * their public API instead: their elements, keys and values are followed, and their internals are
+ * counted as one reference per element (two per entry of a map) and one byte per character, which
+ * is a lower bound. The objects behind the inaccessible fields of any other class are not counted,
+ * and a warning names the class. Grading runs that measure space should open the JDK packages in
+ * question, e.g.
+ * <pre>
+ * java --add-opens java.base/java.util=ALL-UNNAMED --add-opens java.base/java.lang=ALL-UNNAMED ...
+ * </pre>
+ * so that their objects are measured exactly.
+ */
+class ObjectGraphSize {
+    private static final boolean COMPRESSED_OOPS = compressedOops();
+    private static final int REFERENCE_SIZE = COMPRESSED_OOPS ? 4 : 8;
+    private static final int OBJECT_HEADER_SIZE = COMPRESSED_OOPS ? 12 : 16;
+    private static final int ARRAY_HEADER_SIZE = OBJECT_HEADER_SIZE + 4;
+    private static final int ALIGNMENT = 8;
+
+    /* Shallow size and reference fields of every class, computed once. */
+    private static final ClassValue<Layout> LAYOUTS = new ClassValue<>() {
+        @Override
+        protected Layout computeValue(Class<?> type) {
+            return new Layout(type);
+        }
+    };
+
+    /* Classes with inaccessible fields that have already been warned about. */
+    private static final Set<Class<?>> WARNED = ConcurrentHashMap.newKeySet();
+
+    private static class Layout {
+        final long shallowSize;
+        final List<Field> references = new ArrayList<>();
+        // True if some reference fields could not be made accessible
+        boolean encapsulated = false;
+
+        Layout(Class<?> type) {
+            long size = OBJECT_HEADER_SIZE;
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    size += fieldSize(field.getType());
+                    if (field.getType().isPrimitive()) {
+                        continue;
+                    }
+                    if (trySetAccessible(field)) {
+                        references.add(field);
+                    } else {
+                        encapsulated = true;
+                    }
+                }
+            }
+            shallowSize = align(size);
+        }
+    }
+
+    /**
+     * Returns the estimated number of bytes retained by ROOT.
+     */
+    static long of(Object root) {
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        // Walked without recursion, so that long linked structures cannot overflow the stack.
+        Deque<Object> toVisit = new ArrayDeque<>();
+        long size = 0;
+        if (root != null) {
+            toVisit.push(root);
+        }
+        while (!toVisit.isEmpty()) {
+            Object object = toVisit.pop();
+            if (!visited.add(object) || isShared(object)) {
+                continue;
+            }
+            Class<?> type = object.getClass();
+            if (type.isArray()) {
+                int length = Array.getLength(object);
+                Class<?> component = type.getComponentType();
+                size += align(ARRAY_HEADER_SIZE + (long) length * fieldSize(component));
+                if (!component.isPrimitive()) {
+                    for (Object element : (Object[]) object) {
+                        if (element != null) {
+                            toVisit.push(element);
+                        }
+                    }
+                }
+                continue;
+            }
+            Layout layout = LAYOUTS.get(type);
+            size += layout.shallowSize;
+            if (layout.encapsulated) {
+                size += sizeThroughPublicAPI(object, toVisit);
+            }
+            for (Field field : layout.references) {
+                try {
+                    Object referenced = field.get(object);
+                    if (referenced != null) {
+                        toVisit.push(referenced);
+                    }
+                } catch (IllegalAccessException e) {
+                    // Not followed, like any other inaccessible field
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Adds what OBJECT, some of whose fields are inaccessible, holds according to its public API to
+     * TOVISIT, and returns a lower bound on the bytes behind those fields.
+     */
+    private static long sizeThroughPublicAPI(Object object, Deque<Object> toVisit) {
+        try {
+            if (object instanceof Collection) {
+                Collection<?> collection = (Collection<?>) object;
+                for (Object element : collection) {
+                    if (element != null) {
+                        toVisit.push(element);
+                    }
+                }
+                return align(ARRAY_HEADER_SIZE + (long) collection.size() * REFERENCE_SIZE);
+            } else if (object instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) object;
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    if (entry.getKey() != null) {
+                        toVisit.push(entry.getKey());
+                    }
+                    if (entry.getValue() != null) {
+                        toVisit.push(entry.getValue());
+                    }
+                }
+                return align(ARRAY_HEADER_SIZE + 2L * map.size() * REFERENCE_SIZE);
+            } else if (object instanceof String) {
+                return align(ARRAY_HEADER_SIZE + ((String) object).length());
+            }
+        } catch (RuntimeException e) {
+            // e.g. a collection modified by another thread; warned about like any other class
+        }
+        if (WARNED.add(object.getClass())) {
+            System.err.println("Warning: the fields of " + object.getClass().getName() + " are not accessible, "
+                    + "so the memory behind them is not counted. Run with --add-opens "
+                    + object.getClass().getModule().getName() + "/" + object.getClass().getPackageName()
+                    + "=ALL-UNNAMED to count it.");
+        }
+        return 0;
+    }
+
+    private static boolean isShared(Object object) {
+        return object instanceof Class || object instanceof ClassLoader || object instanceof Thread;
+    }
+
+    private static boolean trySetAccessible(Field field) {
+        try {
+            return field.trySetAccessible();
+        } catch (SecurityException e) {
+            return false;
+        }
+    }
+
+    private static long fieldSize(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        } else if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return REFERENCE_SIZE;
+    }
+
+    private static long align(long size) {
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /**
+     * Returns true unless the JVM is known to use uncompressed references.
+     */
+    private static boolean compressedOops() {
+        try {
+            com.sun.management.HotSpotDiagnosticMXBean hotspot =
+                    ManagementFactory.getPlatformMXBean(com.sun.management.HotSpotDiagnosticMXBean.class);
+            return hotspot == null || Boolean.parseBoolean(hotspot.getVMOption("UseCompressedOops").getValue());
+        } catch (RuntimeException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package jh61b.utils;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * OperationCountAgent is a Java agent that makes the methods of student classes count their calls
+ * through {@link OperationCounter}. Run the autograder with
+ * <pre>
+ * java -javaagent:jh61b.jar=prefix1,prefix2 ...
+ * </pre>
+ * to instrument every class whose name starts with one of the prefixes, e.g. the package of the
+ * student code. At least one prefix is required, so that the tests and the libraries they use are
+ * not counted; classes of the JDK and of jh61b are never instrumented, even if a prefix matches them.
+ */
+public class OperationCountAgent {
+    /* Classes that are never instrumented, since the counter must not count itself or the grader. */
+    private static final String[] EXCLUDED_PREFIXES = {
+        "java/", "javax/", "jdk/", "sun/", "com/sun/", "jh61b/", "junit/", "org/junit/",
+        "org/opentest4j/", "org/apiguardian/", "com/google/gson/",
+    };
+
+    private static volatile boolean installed = false;
+
+    public static void premain(String agentArgs, Instrumentation instrumentation) {
+        install(agentArgs, instrumentation);
+    }
+
+    /**
+     * Entry point when the agent is attached to a running JVM; classes that are already loaded
+     * are instrumented too.
+     */
+    public static void agentmain(String agentArgs, Instrumentation instrumentation) {
+        Transformer transformer = install(agentArgs, instrumentation);
+        if (!instrumentation.isRetransformClassesSupported()) {
+            return;
+        }
+        List<Class<?>> loaded = new ArrayList<>();
+        for (Class<?> c : instrumentation.getAllLoadedClasses()) {
+            if (instrumentation.isModifiableClass(c) && transformer.shouldInstrument(c.getName().replace('.', '/'))) {
+                loaded.add(c);
+            }
+        }
+        try {
+            if (!loaded.isEmpty()) {
+                instrumentation.retransformClasses(loaded.toArray(new Class<?>[0]));
+            }
+        } catch (UnmodifiableClassException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static Transformer install(String agentArgs, Instrumentation instrumentation) {
+        Transformer transformer = new Transformer(agentArgs);
+        instrumentation.addTransformer(transformer, true);
+        installed = true;
+        return transformer;
+    }
+
+    /**
+     * Returns true if the agent runs in this JVM.
+     */
+    public static boolean isInstalled() {
+        return installed;
+    }
+
+    private static class Transformer implements ClassFileTransformer {
+        private final List<String> prefixes = new ArrayList<>();
+
+        Transformer(String agentArgs) {
+            if (agentArgs != null) {
+                for (String prefix : agentArgs.split(",")) {
+                    if (!prefix.isBlank()) {
+                        prefixes.add(prefix.trim().replace('.', '/'));
+                    }
+                }
+            }
+            if (prefixes.isEmpty()) {
+                throw new IllegalArgumentException("OperationCountAgent needs the prefixes of the classes to count, "
+                        + "e.g. -javaagent:jh61b.jar=student.package");
+            }
+        }
+
+        boolean shouldInstrument(String className) {
+            for (String excluded : EXCLUDED_PREFIXES) {
+                if (className.startsWith(excluded)) {
+                    return false;
+                }
+            }
+            for (String prefix : prefixes) {
+                if (className.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                                ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+            // Classes of the bootstrap and platform loaders cannot see the counter.
+            if (className == null || loader == null || loader == ClassLoader.getPlatformClassLoader()
+                    || !shouldInstrument(className)) {
+                return null;
+            }
+            try {
+                return MethodEntryInstrumenter.instrument(classfileBuffer);
+            } catch (RuntimeException e) {
+                // A class that cannot be instrumented is loaded as it is, rather than not at all.
+                e.printStackTrace();
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package jh61b.utils;
+
+/**
+ * OperationCounter counts operations, which {@link RuntimeInstrumentation#getOperationCountComplexity}
+ * fits instead of running times. Unlike times, counts are exact and do not depend on the load of the host.
+ * <p>
+ * Classes instrumented by {@link OperationCountAgent} call {@link #count()} at the start of every
+ * method and before every backward jump, so the count is the number of method calls and loop
+ * iterations they made. Code that is not instrumented can call {@link #count()} itself, e.g. from a
+ * counting comparator. Recursion and loops are counted alike; calls into classes that are not
+ * instrumented, such as those of the JDK, are not counted at all, however long they take.
+ * <p>
+ * Every thread has a count of its own, so that tests running in parallel do not count each other's
+ * operations. {@link #get()} only returns the count of the calling thread: work that the code under
+ * test hands to other threads, e.g. a parallel stream or an executor, is not counted.
+ */
+public class OperationCounter {
+    private static final ThreadLocal<long[]> COUNT = ThreadLocal.withInitial(() -> new long[1]);
+
+    /**
+     * Counts one operation of the calling thread.
+     */
+    public static void count() {
+        COUNT.get()[0]++;
+    }
+
+    /**
+     * Returns the number of operations counted so far by the calling thread.
+     */
+    public static long get() {
+        return COUNT.get()[0];
+    }
+}
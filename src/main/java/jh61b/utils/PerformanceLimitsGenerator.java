@@ -0,0 +1,242 @@
+package jh61b.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+/**
+ * PerformanceLimitsGenerator derives the table of a {@link ProgramPerformanceLimits} from runs of the
+ * reference solution, instead of having it tuned by hand. The reference is run many times at every
+ * test ID; the bounds of each field are percentiles of the values it reported, widened by a slack
+ * factor. For example, with the default percentiles and a slack of 1.5:
+ * <pre>
+ * new PerformanceLimitsGenerator(fields, testIDs, reference).runs(50).slack("time", 3).write("limits.json");
+ * </pre>
+ * writes bounds from 2/3 of the smallest to 1.5 times the largest value observed for every field
+ * but time, which gets from 1/3 of the smallest to 3 times the largest, to a file that
+ * {@link ProgramPerformanceLimits#load} reads.
+ * <p>
+ * Runs go through every test ID in turn, so that JIT compilation and drift in the speed of the host
+ * affect all of them alike. Regenerate the file whenever the grading hardware changes.
+ */
+public class PerformanceLimitsGenerator {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+
+    /**
+     * Runs the reference solution on the test with the given ID.
+     */
+    public interface Reference {
+        /**
+         * Returns the value of every field for one run of the test TESTID, in the order of the
+         * field names given to the generator.
+         */
+        double[] run(double testID);
+    }
+
+    private final String[] fieldNames;
+    private final double[] testIDs;
+    private final Reference reference;
+    private int runs = 30;
+    private int warmupRuns = 3;
+    private double lowerPercentile = 0;
+    private double upperPercentile = 100;
+    private double slack = 1.5;
+    private final Map<String, Double> fieldSlack = new HashMap<>();
+    private ProgramPerformanceLimits.Interpolation interpolation = ProgramPerformanceLimits.Interpolation.NONE;
+
+    public PerformanceLimitsGenerator(String[] fieldNames, double[] testIDs, Reference reference) {
+        this.fieldNames = fieldNames.clone();
+        this.testIDs = testIDs.clone();
+        this.reference = reference;
+    }
+
+    /**
+     * Number of runs at every test ID that the bounds are computed from, at least 1.
+     */
+    public PerformanceLimitsGenerator runs(int runs) {
+        if (runs < 1) {
+            throw new IllegalArgumentException("At least one run is needed, not " + runs);
+        }
+        this.runs = runs;
+        return this;
+    }
+
+    /**
+     * Number of runs through all test IDs made, and ignored, before the counted ones.
+     */
+    public PerformanceLimitsGenerator warmupRuns(int warmupRuns) {
+        if (warmupRuns < 0) {
+            throw new IllegalArgumentException("The number of warm-up runs cannot be negative: " + warmupRuns);
+        }
+        this.warmupRuns = warmupRuns;
+        return this;
+    }
+
+    /**
+     * The bounds start from these percentiles of the observed values, e.g. 1 and 99 to ignore a
+     * rare outlier. The defaults, 0 and 100, are the smallest and largest values observed.
+     */
+    public PerformanceLimitsGenerator percentiles(double lowerPercentile, double upperPercentile) {
+        if (!(0 <= lowerPercentile && lowerPercentile <= upperPercentile && upperPercentile <= 100)) {
+            throw new IllegalArgumentException("Percentiles must satisfy 0 <= lower <= upper <= 100, not "
+                    + lowerPercentile + " and " + upperPercentile);
+        }
+        this.lowerPercentile = lowerPercentile;
+        this.upperPercentile = upperPercentile;
+        return this;
+    }
+
+    /**
+     * Factor of at least 1 that widens the bounds of every field: a positive upper bound is
+     * multiplied by it and a positive lower bound divided by it, and the other way around for
+     * negative bounds, so that bounds only ever move outwards.
+     */
+    public PerformanceLimitsGenerator slack(double slack) {
+        checkSlack(slack);
+        this.slack = slack;
+        return this;
+    }
+
+    /**
+     * Slack of the field FIELDNAME only, e.g. a larger one for times than for operation counts.
+     */
+    public PerformanceLimitsGenerator slack(String fieldName, double slack) {
+        checkSlack(slack);
+        fieldSlack.put(fieldName, slack);
+        return this;
+    }
+
+    /**
+     * Interpolation that the generated limits are used with.
+     */
+    public PerformanceLimitsGenerator interpolation(ProgramPerformanceLimits.Interpolation interpolation) {
+        this.interpolation = interpolation;
+        return this;
+    }
+
+    /**
+     * Runs the reference and returns the limits derived from it.
+     */
+    public ProgramPerformanceLimits generate() {
+        ProgramPerformanceLimits ppl = new ProgramPerformanceLimits(fieldNames, table());
+        ppl.setInterpolation(interpolation);
+        return ppl;
+    }
+
+    /**
+     * Runs the reference and writes the limits derived from it to FILENAME, as JSON if the name
+     * ends in .json and as CSV otherwise.
+     */
+    public void write(String filename) {
+        double[][] table = table();
+        Path path = Paths.get(filename);
+        try {
+            if (path.toAbsolutePath().getParent() != null) {
+                Files.createDirectories(path.toAbsolutePath().getParent());
+            }
+            try (Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                if (filename.toLowerCase().endsWith(".json")) {
+                    writeJSON(table, out);
+                } else {
+                    writeCSV(table, out);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write performance limits to " + filename, e);
+        }
+    }
+
+    /**
+     * Returns the table of limits, with a row per test ID and a lower and upper bound per field.
+     */
+    double[][] table() {
+        // observed[t][f][r] is the value of field f in run r of test ID t
+        double[][][] observed = new double[testIDs.length][fieldNames.length][runs];
+        for (int r = -warmupRuns; r < runs; r++) {
+            for (int t = 0; t < testIDs.length; t++) {
+                double[] values = reference.run(testIDs[t]);
+                if (values.length != fieldNames.length) {
+                    throw new IllegalStateException("The reference returned " + values.length
+                            + " values for " + fieldNames.length + " fields at test ID " + testIDs[t]);
+                }
+                if (r < 0) {
+                    continue;
+                }
+                for (int f = 0; f < fieldNames.length; f++) {
+                    observed[t][f][r] = values[f];
+                }
+            }
+        }
+
+        double[][] table = new double[testIDs.length][2 * fieldNames.length + 1];
+        for (int t = 0; t < testIDs.length; t++) {
+            table[t][0] = testIDs[t];
+            for (int f = 0; f < fieldNames.length; f++) {
+                double fieldSlackFactor = fieldSlack.getOrDefault(fieldNames[f], slack);
+                table[t][2 * f + 1] = widen(percentile(observed[t][f], lowerPercentile), 1 / fieldSlackFactor);
+                table[t][2 * f + 2] = widen(percentile(observed[t][f], upperPercentile), fieldSlackFactor);
+            }
+        }
+        return table;
+    }
+
+    private void writeJSON(double[][] table, Writer out) {
+        JsonObject json = new JsonObject();
+        json.addProperty("host", CalibrationCache.hostFingerprint());
+        json.addProperty("runs", runs);
+        json.add("fields", GSON.toJsonTree(fieldNames));
+        json.add("limits", GSON.toJsonTree(table));
+        json.addProperty("interpolation", interpolation.name());
+        GSON.toJson(json, out);
+    }
+
+    private void writeCSV(double[][] table, Writer out) throws IOException {
+        out.write("# Generated from " + runs + " runs of the reference on " + CalibrationCache.hostFingerprint() + "\n");
+        StringBuilder header = new StringBuilder("id");
+        for (String field : fieldNames) {
+            header.append(',').append(field).append("_min,").append(field).append("_max");
+        }
+        out.write(header + "\n");
+        for (double[] row : table) {
+            StringBuilder line = new StringBuilder();
+            for (int c = 0; c < row.length; c++) {
+                line.append(c == 0 ? "" : ",").append(row[c]);
+            }
+            out.write(line + "\n");
+        }
+    }
+
+    /**
+     * Returns BOUND scaled by FACTOR if it is positive, or divided by FACTOR if it is negative.
+     * A factor above 1 therefore moves a bound up, and one below 1 moves it down.
+     */
+    private static double widen(double bound, double factor) {
+        return bound >= 0 ? bound * factor : bound / factor;
+    }
+
+    private static void checkSlack(double slack) {
+        if (!(slack >= 1)) {
+            throw new IllegalArgumentException("Slack must be at least 1, not " + slack);
+        }
+    }
+
+    /**
+     * Returns the value that PERCENTILE percent of VALUES are at most (nearest rank).
+     */
+    private static double percentile(double[] values, double percentile) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+}
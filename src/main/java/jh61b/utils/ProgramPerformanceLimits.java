@@ -1,5 +1,21 @@
 package jh61b.utils;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 
 // The ProgramPerformanceLimits class was designed to simplify performance testing code by allowing
 // performance limits to be specified using literal matrices.
@@ -35,9 +51,34 @@ import java.util.HashMap;
 // For more details on these methods, see the comments below. As an alternative to calling
 // these methods directly, one can also use the PPLTestResult nested class, which performs all
 // tests at once, and makes results available via separate (final) instance variables.
+
+// Limits can also be kept in a CSV or JSON file and read with load(). Test IDs are looked up
+// in a sorted index rather than by scanning the table, and are matched to within a relative
+// tolerance of ID_TOLERANCE, so that IDs computed in floating point still find their row.
+// With setInterpolation(), IDs that fall between two rows get bounds interpolated between
+// those rows, so large parameter sweeps don't need a row for every N. Rather than tuning the
+// bounds by hand, PerformanceLimitsGenerator can derive them from runs of the reference solution.
 public class ProgramPerformanceLimits {
+    // Two test IDs are the same if they differ by at most this fraction of the larger one.
+    private static final double ID_TOLERANCE = 1e-9;
+
+    // How the bounds of a test ID that lies between two rows of the table are found.
+    // NONE: such IDs do not exist. LINEAR: bounds lie on the line between the two rows.
+    // LOG_LOG: bounds lie on the line between the two rows on a log-log scale, i.e. they
+    // grow like a power of the ID between them, which suits operation counts and times.
+    // Bounds that are not positive are interpolated linearly even under LOG_LOG.
+    public enum Interpolation {
+        NONE, LINEAR, LOG_LOG
+    }
+
     private double[][] performanceLimits;
     private HashMap<String, Integer> fieldNameToColumnNumber;
+    private String[] fieldNames;
+    private Interpolation interpolation = Interpolation.NONE;
+
+    // Test IDs in increasing order, and the row of the table that each one is in.
+    private double[] sortedTestIDs;
+    private int[] sortedRows;
 
     // The constructor takes an array of fieldnames of arbitrary length F, and a 2D array
     // of doubles of size N x M, where N may be any number, and M = 2*F + 1. The first column of the table
@@ -86,19 +127,153 @@ public class ProgramPerformanceLimits {
             columnOfCurrentField += 2;
         }
 
+        fieldNames = fieldnames.clone();
+
         // copy the performance matrix
         performanceLimits = new double[numRows][numColumns];
         for (int r = 0; r < numRows; r++)
             for (int c = 0; c < numColumns; c++)
                 performanceLimits[r][c] = limits[r][c];
+
+        // Index the rows by test ID. As with the old linear scan, the last row with a given ID wins.
+        TreeMap<Double, Integer> rowOfTestID = new TreeMap<Double, Integer>();
+        for (int r = 0; r < numRows; r++)
+            rowOfTestID.put(performanceLimits[r][0], r);
+        sortedTestIDs = new double[rowOfTestID.size()];
+        sortedRows = new int[rowOfTestID.size()];
+        int i = 0;
+        for (Map.Entry<Double, Integer> entry : rowOfTestID.entrySet()) {
+            sortedTestIDs[i] = entry.getKey();
+            sortedRows[i] = entry.getValue();
+            i++;
+        }
     }
 
-    // Determines whether or not a given test exists.
+    // Reads a table of limits from FILENAME. Files whose name ends in .json hold an object
+    // with a "fields" array of field names and a "limits" array of rows, exactly like the
+    // arguments of the constructor, and optionally an "interpolation" of NONE, LINEAR or LOG_LOG:
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////////
+    // {
+    //   "fields": ["time", "union"],
+    //   "limits": [[8, 0, 100, 10, 1500], [32, 0, 100, 150, 15000]],
+    //   "interpolation": "LOG_LOG"
+    // }
+    ////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Any other file is read as CSV, with one row per line. The header names the ID column,
+    // then the lower and upper bound column of each field as field_min and field_max.
+    // Blank lines and lines starting with # are skipped:
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////////
+    // N,time_min,time_max,union_min,union_max
+    // 8,0,100,10,1500
+    // 32,0,100,150,15000
+    ////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    public static ProgramPerformanceLimits load(String filename) {
+        Path path = Paths.get(filename);
+        try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            if (filename.toLowerCase().endsWith(".json"))
+                return fromJSON(JsonParser.parseReader(in).getAsJsonObject());
+            return fromCSV(in);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read performance limits from " + filename, e);
+        } catch (JsonParseException | IllegalStateException | NullPointerException e) {
+            throw new IllegalArgumentException("Malformed performance limits in " + filename, e);
+        }
+    }
+
+    private static ProgramPerformanceLimits fromJSON(JsonObject json) {
+        JsonArray fields = json.getAsJsonArray("fields");
+        String[] fieldnames = new String[fields.size()];
+        for (int i = 0; i < fieldnames.length; i++)
+            fieldnames[i] = fields.get(i).getAsString();
+
+        JsonArray rows = json.getAsJsonArray("limits");
+        double[][] limits = new double[rows.size()][];
+        for (int r = 0; r < limits.length; r++) {
+            JsonArray row = rows.get(r).getAsJsonArray();
+            limits[r] = new double[row.size()];
+            for (int c = 0; c < limits[r].length; c++)
+                limits[r][c] = row.get(c).getAsDouble();
+        }
+
+        ProgramPerformanceLimits ppl = checkedLimits(fieldnames, limits);
+        if (json.has("interpolation"))
+            ppl.setInterpolation(Interpolation.valueOf(json.get("interpolation").getAsString()));
+        return ppl;
+    }
+
+    private static ProgramPerformanceLimits fromCSV(BufferedReader in) throws IOException {
+        String[] header = null;
+        List<double[]> rows = new ArrayList<double[]>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            String[] cells = line.split("\\s*,\\s*");
+            if (header == null) {
+                header = cells;
+                continue;
+            }
+            double[] row = new double[cells.length];
+            for (int c = 0; c < cells.length; c++) {
+                try {
+                    row[c] = Double.parseDouble(cells[c]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Not a number in performance limits: " + cells[c], e);
+                }
+            }
+            rows.add(row);
+        }
+        if (header == null)
+            throw new IllegalArgumentException("Performance limits have no header");
+
+        if (header.length % 2 != 1)
+            throw new IllegalArgumentException("Performance limits need an ID column and a _min and _max column per field");
+        String[] fieldnames = new String[header.length / 2];
+        for (int i = 0; i < fieldnames.length; i++) {
+            String min = header[2 * i + 1];
+            String max = header[2 * i + 2];
+            if (!min.endsWith("_min") || !max.endsWith("_max")
+                    || !min.substring(0, min.length() - 4).equals(max.substring(0, max.length() - 4)))
+                throw new IllegalArgumentException("Expected columns field_min,field_max but found " + min + "," + max);
+            fieldnames[i] = min.substring(0, min.length() - 4);
+        }
+        return checkedLimits(fieldnames, rows.toArray(new double[0][]));
+    }
+
+    // Like the constructor, but checks the shape of the table even when assertions are disabled,
+    // since a file can be edited without recompiling anything.
+    private static ProgramPerformanceLimits checkedLimits(String[] fieldnames, double[][] limits) {
+        if (limits.length == 0)
+            throw new IllegalArgumentException("Performance limits have no rows");
+        for (double[] row : limits)
+            if (row.length != fieldnames.length * 2 + 1)
+                throw new IllegalArgumentException("Performance limits row " + Arrays.toString(row)
+                        + " should have " + (fieldnames.length * 2 + 1) + " columns");
+        return new ProgramPerformanceLimits(fieldnames, limits);
+    }
+
+    // Sets how bounds are found for test IDs between two rows. See Interpolation.
+    public void setInterpolation(Interpolation interpolation) {
+        this.interpolation = interpolation;
+    }
+
+    public Interpolation getInterpolation() {
+        return interpolation;
+    }
+
+    public String[] getFieldNames() {
+        return fieldNames.clone();
+    }
+
+    // Determines whether or not a given test exists. With interpolation, every test ID
+    // between the smallest and the largest in the table exists.
     public boolean testExists(double testID, String fieldName) {
-        boolean rowExists = false;
-        int rowNum = testIDToRow(testID);
-        if (rowNum >= 0)
-            rowExists = true;
+        boolean rowExists = testIDToRow(testID) >= 0 || isInterpolated(testID);
         boolean columnExists = fieldNameToColumnNumber.containsKey(fieldName);
         return columnExists && rowExists;
     }
@@ -143,37 +318,64 @@ public class ProgramPerformanceLimits {
         return rs;
     }
 
+    // Returns the row of the table whose ID matches testID, or -1 if there is none.
     private int testIDToRow(double testID) {
-        int numRows = performanceLimits.length;
-        int returnValue = -1;
-
-        for (int r = 0; r < numRows; r++)
-            if (performanceLimits[r][0] == testID)
-                returnValue = r;
+        int i = Arrays.binarySearch(sortedTestIDs, testID);
+        if (i >= 0)
+            return sortedRows[i];
+
+        // Not an exact match, so check the IDs on either side of where it would be.
+        int insertionPoint = -i - 1;
+        for (int j = insertionPoint - 1; j <= insertionPoint; j++)
+            if (j >= 0 && j < sortedTestIDs.length && sameTestID(sortedTestIDs[j], testID))
+                return sortedRows[j];
+        return -1;
+    }
 
-        return returnValue;
+    private static boolean sameTestID(double a, double b) {
+        return Math.abs(a - b) <= ID_TOLERANCE * Math.max(Math.abs(a), Math.abs(b));
     }
 
+    // Returns true if testID is not in the table but its bounds can be interpolated.
+    private boolean isInterpolated(double testID) {
+        return interpolation != Interpolation.NONE && sortedTestIDs.length > 1
+                && testID > sortedTestIDs[0] && testID < sortedTestIDs[sortedTestIDs.length - 1];
+    }
 
-    private int[] getRowAndColumn(double testID, String fieldName) {
-        int rowNum = testIDToRow(testID);
+    private int fieldNameToColumn(String fieldName) {
         if (!fieldNameToColumnNumber.containsKey(fieldName))
             throw new RuntimeException("fieldName " + fieldName + " does not exist in program performance limit table!");
-        int colNum = fieldNameToColumnNumber.get(fieldName);
-        return new int[] {rowNum, colNum};
+        return fieldNameToColumnNumber.get(fieldName);
     }
 
     private double[] getLimits(double testID, String fieldName) {
-        int[] rowAndCol = getRowAndColumn(testID, fieldName);
-        int rowNum = rowAndCol[0];
-        int colNum = rowAndCol[1];
+        int colNum = fieldNameToColumn(fieldName);
+        int rowNum = testIDToRow(testID);
+        if (rowNum >= 0)
+            return new double[]{performanceLimits[rowNum][colNum], performanceLimits[rowNum][colNum+1]};
+        if (!isInterpolated(testID))
+            throw new RuntimeException("testID " + testID + " does not exist in program performance limit table!");
 
-        double minValue = performanceLimits[rowNum][colNum];
-        double maxValue = performanceLimits[rowNum][colNum+1];
+        // The rows with the closest IDs below and above testID.
+        int above = -Arrays.binarySearch(sortedTestIDs, testID) - 1;
+        double[] lowerRow = performanceLimits[sortedRows[above - 1]];
+        double[] upperRow = performanceLimits[sortedRows[above]];
 
+        double minValue = interpolate(lowerRow[0], lowerRow[colNum], upperRow[0], upperRow[colNum], testID);
+        double maxValue = interpolate(lowerRow[0], lowerRow[colNum+1], upperRow[0], upperRow[colNum+1], testID);
         return new double[]{minValue, maxValue};
     }
 
+    // Returns the value at x on the line through (x0, y0) and (x1, y1), on a log-log
+    // scale if interpolation is LOG_LOG and every coordinate is positive.
+    private double interpolate(double x0, double y0, double x1, double y1, double x) {
+        if (interpolation == Interpolation.LOG_LOG && x0 > 0 && y0 > 0 && y1 > 0) {
+            double exponent = Math.log(y1 / y0) / Math.log(x1 / x0);
+            return y0 * Math.pow(x / x0, exponent);
+        }
+        return y0 + (y1 - y0) * (x - x0) / (x1 - x0);
+    }
+
     public double[] getTestIDs() {
         double [] testIDs = new double[performanceLimits.length];
         for (int i = 0; i < performanceLimits.length; i++) {
@@ -0,0 +1,76 @@
+package jh61b.utils;
+
+import java.util.Arrays;
+
+/**
+ * ReferenceComparison holds the per-call times of a student implementation and of the reference
+ * implementation, sampled alternately in the same JVM, so that both ran on the same hardware under
+ * the same load. Their ratio does not depend on how fast the host is.
+ */
+public class ReferenceComparison {
+    private final int size;
+    private final long[] studentSamples;
+    private final long[] referenceSamples;
+
+    ReferenceComparison(int size, long[] studentSamples, long[] referenceSamples) {
+        this.size = size;
+        this.studentSamples = studentSamples;
+        this.referenceSamples = referenceSamples;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the median time of one call of the student implementation, in nanoseconds.
+     */
+    public long getStudentMedian() {
+        return median(studentSamples);
+    }
+
+    /**
+     * Returns the median time of one call of the reference implementation, in nanoseconds.
+     */
+    public long getReferenceMedian() {
+        return median(referenceSamples);
+    }
+
+    /**
+     * Returns how many times slower than the reference the student implementation is, comparing medians.
+     */
+    public double getRatio() {
+        return (double) getStudentMedian() / Math.max(1, getReferenceMedian());
+    }
+
+    public LatencyHistogram getStudentHistogram() {
+        return histogramOf(studentSamples);
+    }
+
+    public LatencyHistogram getReferenceHistogram() {
+        return histogramOf(referenceSamples);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("At N = %d, took %.2f times as long as the reference.%n  Student:   %s%n  Reference: %s%n",
+                size, getRatio(), getStudentHistogram().summary(), getReferenceHistogram().summary());
+    }
+
+    private static long median(long[] samples) {
+        if (samples.length == 0) {
+            return 0;
+        }
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static LatencyHistogram histogramOf(long[] samples) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long sample : samples) {
+            histogram.record(sample);
+        }
+        return histogram;
+    }
+}
@@ -2,20 +2,33 @@ package jh61b.utils;
 
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.text.DecimalFormat;
 import java.util.*;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
+
+import jh61b.grader.GradedTestTimeoutExtension;
+import jh61b.grader.InconclusiveTestException;
 
 public class RuntimeInstrumentation {
-    private static final int SKIP = 8;
-    private static final int ITERATIONS = 100;
+    /* Number of smallest sizes that are measured but not used to classify, since their times are mostly noise. */
+    static final int SKIP = 8;
 
+    /**
+     * Classes of growth, ordered by SIZE rather than by declaration: the classes added after WORSE
+     * come last so that the ordinals and names of the original ones stay the same. WORSE is growth
+     * worse than quadratic that is neither cubic nor exponential.
+     */
     public enum ComplexityType {
         CONSTANT(0, "constant"),
         LOGARITHMIC(1, "logarithmic"),
         LINEAR(2, "linear"),
-        QUADRATIC(3, "quadratic"),
-        WORSE(4, "worse than quadratic");
+        QUADRATIC(4, "quadratic"),
+        WORSE(6, "worse than quadratic"),
+        LINEARITHMIC(3, "N log N"),
+        CUBIC(5, "cubic"),
+        EXPONENTIAL(7, "exponential");
 
         private final String name;
         private int size;
@@ -32,6 +45,50 @@ public class RuntimeInstrumentation {
         public boolean isSlowerThan(ComplexityType other) {
             return this.size > other.size;
         }
+
+        /**
+         * Returns by how much the running time may grow from size N0 to size N, up to constant factors.
+         */
+        double allowedGrowth(double n0, double n) {
+            switch (this) {
+                case CONSTANT:
+                    return 1;
+                case LOGARITHMIC:
+                    return Math.log(n) / Math.log(n0);
+                case LINEAR:
+                    return n / n0;
+                case LINEARITHMIC:
+                    return (n * Math.log(n)) / (n0 * Math.log(n0));
+                case QUADRATIC:
+                    return (n / n0) * (n / n0);
+                case CUBIC:
+                    return (n / n0) * (n / n0) * (n / n0);
+                default:
+                    return Double.POSITIVE_INFINITY;
+            }
+        }
+    }
+
+    /**
+     * What the cost of an operation is measured in.
+     */
+    public enum Cost {
+        /** Nanoseconds, of wall time or of CPU time (see {@link MeasurementOptions#cpuTime(boolean)}). */
+        TIME("time"),
+        /** Operations counted by {@link OperationCounter}, which are exact. */
+        OPERATIONS("operations"),
+        /** Bytes allocated by the measuring thread, which are exact up to JVM internals. */
+        ALLOCATED_BYTES("allocation");
+
+        private final String name;
+
+        Cost(String name) {
+            this.name = name;
+        }
+
+        public String toString() {
+            return this.name;
+        }
     }
 
     public static <DS> long timeFunction(DS ds, Consumer<DS> function) {
@@ -42,140 +99,332 @@ public class RuntimeInstrumentation {
     }
 
     public static <DS> ComplexityType getEmpiricalComplexity(Function<Integer, DS> provideDSOfSize, Consumer<DS> functionToTest, int numberOfDoubles) {
-        List<Long> times = new ArrayList<>();
+        return getEmpiricalComplexity(provideDSOfSize, functionToTest, numberOfDoubles, new MeasurementOptions());
+    }
+
+    public static <DS> ComplexityType getEmpiricalComplexity(Function<Integer, DS> provideDSOfSize, Consumer<DS> functionToTest, int numberOfDoubles, MeasurementOptions options) {
+        return classify(MeasurementEngine.measureTimes(provideDSOfSize, functionToTest, numberOfDoubles, options, null));
+    }
+
+    /**
+     * Like the other getEmpiricalComplexity methods, but for a measurement described by a class,
+     * which can run in a fresh JVM (see {@link MeasurementOptions#fork(boolean)}).
+     */
+    public static ComplexityType getEmpiricalComplexity(Class<? extends ComplexityBenchmark<?>> benchmark, int numberOfDoubles, MeasurementOptions options) {
+        return classify(MeasurementEngine.measureTimes(benchmark, numberOfDoubles, options, null));
+    }
+
+    /**
+     * Like getEmpiricalComplexity, but fits the number of operations counted by {@link OperationCounter}
+     * during each call to FUNCTIONTOTEST instead of its running time. Counts are exact, so every size
+     * is counted once, and the result does not depend on how busy the host is.
+     * <p>
+     * Operations are counted by classes instrumented by {@link OperationCountAgent}, or by code that
+     * calls {@link OperationCounter#count()} itself. Only operations on the calling thread count, so
+     * FUNCTIONTOTEST should not hand its work to other threads.
+     */
+    public static <DS> ComplexityType getOperationCountComplexity(Function<Integer, DS> provideDSOfSize, Consumer<DS> functionToTest, int numberOfDoubles) {
+        Measurement counts = new Measurement();
+        long total = 0;
         int maxSize = (1 << (numberOfDoubles + SKIP));
-        for (int currentSize = 1; currentSize < maxSize; currentSize *= 2) {
-            long totalTime = 0;
-            for (int i = 0; i < ITERATIONS; i++) {
-                DS ds = provideDSOfSize.apply(currentSize);
-                // C a c h e
-                functionToTest.accept(ds);
-                totalTime += timeFunction(ds, functionToTest);
-            }
-            times.add(Math.round((double)totalTime / ITERATIONS));
+        for (int currentSize = (1 << SKIP); currentSize < maxSize; currentSize *= 2) {
+            DS ds = provideDSOfSize.apply(currentSize);
+            long before = OperationCounter.get();
+            functionToTest.accept(ds);
+            long count = OperationCounter.get() - before;
+            counts.add(currentSize, count);
+            total += count;
+        }
+        if (total == 0) {
+            throw new RuntimeException("No operations were counted. Run with -javaagent:<path to jh61b.jar>=<student package> so that "
+                    + "OperationCountAgent instruments the code under test, or call OperationCounter.count() from it.");
         }
+        return classify(counts);
+    }
 
-        for (int i = 0; i < SKIP; i++) {
-            times.remove(0);
+    /**
+     * Returns the amortized complexity of OPERATION: the complexity of the average COST of one call
+     * in a sequence of N calls on a data structure from PROVIDEDS, which starts over for every N.
+     * A single call may cost more, e.g. when it resizes an array, as long as the sequence does not.
+     * <p>
+     * Counting {@link Cost#ALLOCATED_BYTES} tells geometric from arithmetic resizing of arrays
+     * exactly: growing by a constant amount copies, and so allocates, N^2 bytes over N calls.
+     */
+    public static <DS> ComplexityType getAmortizedComplexity(Supplier<DS> provideDS, Consumer<DS> operation, int numberOfDoubles, Cost cost) {
+        return classify(MeasurementEngine.measureAmortized(provideDS, operation, numberOfDoubles, new MeasurementOptions(), cost));
+    }
+
+    public static <DS> ComplexityType getAmortizedComplexity(Supplier<DS> provideDS, Consumer<DS> operation, int numberOfDoubles, Cost cost, MeasurementOptions options) {
+        return classify(MeasurementEngine.measureAmortized(provideDS, operation, numberOfDoubles, options, cost));
+    }
+
+    /**
+     * Returns the reference implementation of STUDENTCLASS, which by the convention of {@link APIChecker}
+     * is the class of the same package whose name is that of STUDENTCLASS prefixed with "AGAPI".
+     */
+    public static Class<?> referenceClassOf(Class<?> studentClass) {
+        String packagePrefix = studentClass.getPackageName().isEmpty() ? "" : studentClass.getPackageName() + ".";
+        String referenceName = packagePrefix + "AGAPI" + studentClass.getSimpleName();
+        try {
+            return Class.forName(referenceName, true, studentClass.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("No reference implementation " + referenceName + " for " + studentClass.getName(), e);
         }
+    }
 
-        if (isApproximately(ComplexityType.CONSTANT, times)) {
-            return ComplexityType.CONSTANT;
+    /**
+     * Times STUDENTFUNCTION and REFERENCEFUNCTION on data structures of size SIZE, alternately
+     * in this JVM, so that how fast the host is does not matter.
+     */
+    public static <S, R> ReferenceComparison compareToReference(Function<Integer, S> provideStudentDS, Consumer<S> studentFunction, Function<Integer, R> provideReferenceDS, Consumer<R> referenceFunction, int size, MeasurementOptions options) {
+        return MeasurementEngine.compare(provideStudentDS, studentFunction, provideReferenceDS, referenceFunction, size, options);
+    }
+
+    /**
+     * Returns the complexity of the space taken by the data structures that PROVIDEDSOFSIZE returns,
+     * i.e. of the number of bytes reachable from them (see {@link #retainedSize(Object)}).
+     */
+    public static <DS> ComplexityType getSpaceComplexity(Function<Integer, DS> provideDSOfSize, int numberOfDoubles) {
+        return classify(MeasurementEngine.measureRetainedSizes(provideDSOfSize, numberOfDoubles));
+    }
+
+    /**
+     * Returns the complexity of the number of bytes that one call to FUNCTIONTOTEST allocates,
+     * whether or not they are still in use afterwards.
+     */
+    public static <DS> ComplexityType getAllocationComplexity(Function<Integer, DS> provideDSOfSize, Consumer<DS> functionToTest, int numberOfDoubles) {
+        return classify(MeasurementEngine.measureAllocations(provideDSOfSize, functionToTest, numberOfDoubles));
+    }
+
+    /**
+     * Returns the estimated number of bytes taken by OBJECT and everything reachable from it,
+     * e.g. to check that a resizing array does not use too much memory per item. On JDK 16 and
+     * later, the internals of JDK collections are only estimated from below unless the JVM runs
+     * with e.g. <code>--add-opens java.base/java.util=ALL-UNNAMED</code>.
+     */
+    public static long retainedSize(Object object) {
+        return ObjectGraphSize.of(object);
+    }
+
+    /**
+     * Returns the times measured as described by OPTIONS, along with how busy the host was
+     * while they were measured (see {@link Measurement#getContention()}).
+     */
+    public static <DS> Measurement measure(Function<Integer, DS> provideDSOfSize, Consumer<DS> functionToTest, int numberOfDoubles, MeasurementOptions options) {
+        return MeasurementEngine.measureTimes(provideDSOfSize, functionToTest, numberOfDoubles, options, null);
+    }
+
+    public static Measurement measure(Class<? extends ComplexityBenchmark<?>> benchmark, int numberOfDoubles, MeasurementOptions options) {
+        return MeasurementEngine.measureTimes(benchmark, numberOfDoubles, options, null);
+    }
+
+    /**
+     * Returns the complexity that best fits MEASUREMENT.
+     */
+    public static ComplexityType classify(Measurement measurement) {
+        return fit(measurement).getType();
+    }
+
+    /**
+     * Returns the complexity that best fits MEASUREMENT, with the growth exponent of its times
+     * and how sure the fit is of it.
+     */
+    public static ComplexityFit fit(Measurement measurement) {
+        return ComplexityFit.of(measurement);
+    }
+
+    public static <DS> void assertAtMost(String whatIsBeingTested, ComplexityType expected, Function<Integer, DS> provideDSOfSize, Consumer<DS> functionToTest, int numberOfDoubles) {
+        assertAtMost(whatIsBeingTested, expected, provideDSOfSize, functionToTest, numberOfDoubles, new MeasurementOptions());
+    }
+
+    /**
+     * Like the assertAtMost above, but measured as described by OPTIONS. In adaptive mode, doubling
+     * the size stops as soon as the running time grew far faster than EXPECTED allows, and the
+     * sizes measured so far are classified as usual.
+     * If the host was too busy for the measurement to be trusted, it is repeated, and if that does
+     * not help, an {@link InconclusiveTestException} is thrown, for which the graders keep the test's
+     * full score and ask for a rerun rather than failing the code under test.
+     */
+    public static <DS> void assertAtMost(String whatIsBeingTested, ComplexityType expected, Function<Integer, DS> provideDSOfSize, Consumer<DS> functionToTest, int numberOfDoubles, MeasurementOptions options) {
+        requireNoRunawayTests(whatIsBeingTested);
+        checkAtMost(whatIsBeingTested, expected, measureUncontended(whatIsBeingTested, options,
+                () -> MeasurementEngine.measureTimes(provideDSOfSize, functionToTest, numberOfDoubles, options, expected)));
+    }
+
+    public static void assertAtMost(String whatIsBeingTested, ComplexityType expected, Class<? extends ComplexityBenchmark<?>> benchmark, int numberOfDoubles, MeasurementOptions options) {
+        requireNoRunawayTests(whatIsBeingTested);
+        checkAtMost(whatIsBeingTested, expected, measureUncontended(whatIsBeingTested, options,
+                () -> MeasurementEngine.measureTimes(benchmark, numberOfDoubles, options, expected)));
+    }
+
+    /**
+     * Like assertAtMost, but for the PERCENTILEth percentile of the per-call times at each size
+     * rather than their mean, e.g. 99 for the tail or 100 for the slowest call. This catches
+     * operations that are usually fast but sometimes slow, such as lookups in a degenerate
+     * bucket of a hash table, which the mean hides. Every call is timed on its own, even if
+     * OPTIONS asks for batches.
+     */
+    public static <DS> void assertPercentileAtMost(String whatIsBeingTested, ComplexityType expected, double percentile, Function<Integer, DS> provideDSOfSize, Consumer<DS> functionToTest, int numberOfDoubles, MeasurementOptions options) {
+        requireNoRunawayTests(whatIsBeingTested);
+        MeasurementOptions perCall = options.perCall();
+        Measurement measurement = measureUncontended(whatIsBeingTested, perCall,
+                () -> MeasurementEngine.measureTimes(provideDSOfSize, functionToTest, numberOfDoubles, perCall, null));
+        ComplexityFit fit = fit(measurement.atPercentile(percentile));
+        if (fit.getType().isSlowerThan(expected)) {
+            fail(String.format("%s is expected to be %s time or better at the %s. The actual calculated time is %s.%nTimes per call:%n%s",
+                    whatIsBeingTested, expected, formatPercentile(percentile), fit, measurement.histogramSummary()));
         }
-        else if (isApproximately(ComplexityType.LOGARITHMIC, times)) {
-            return ComplexityType.LOGARITHMIC;
+    }
+
+    /**
+     * Fails unless the PERCENTILEth percentile of the per-call times is at most MAXNANOS at every size.
+     * Every call is timed on its own, even if OPTIONS asks for batches.
+     */
+    public static <DS> void assertPercentileAtMost(String whatIsBeingTested, double percentile, long maxNanos, Function<Integer, DS> provideDSOfSize, Consumer<DS> functionToTest, int numberOfDoubles, MeasurementOptions options) {
+        requireNoRunawayTests(whatIsBeingTested);
+        MeasurementOptions perCall = options.perCall();
+        Measurement measurement = measureUncontended(whatIsBeingTested, perCall,
+                () -> MeasurementEngine.measureTimes(provideDSOfSize, functionToTest, numberOfDoubles, perCall, null));
+        for (int i = 0; i < measurement.histograms.size(); i++) {
+            long value = measurement.histograms.get(i).getValueAtPercentile(percentile);
+            if (value > maxNanos) {
+                fail(String.format("%s is expected to take at most %d ns at the %s. At N = %d it took %d ns.%nTimes per call:%n%s",
+                        whatIsBeingTested, maxNanos, formatPercentile(percentile), measurement.sizes.get(i), value, measurement.histogramSummary()));
+            }
         }
-        else if (isApproximately(ComplexityType.LINEAR, times)) {
-            return ComplexityType.LINEAR;
+    }
+
+    private static String formatPercentile(double percentile) {
+        return percentile >= 100 ? "maximum" : new DecimalFormat("0.##").format(percentile) + "th percentile";
+    }
+
+    /**
+     * Fails right away if a test that timed out left its thread running, since every timing taken
+     * next to that busy core would be off. The test is inconclusive instead if the thread belongs
+     * to another submission graded in this JVM (one with another context class loader).
+     */
+    static void requireNoRunawayTests(String whatIsBeingTested) {
+        List<Thread> runaway = GradedTestTimeoutExtension.runawayThreads();
+        if (runaway.isEmpty()) {
+            return;
         }
-        else if (isApproximately(ComplexityType.QUADRATIC, times)) {
-            return ComplexityType.QUADRATIC;
+        ClassLoader submission = Thread.currentThread().getContextClassLoader();
+        for (Thread thread : runaway) {
+            if (thread.getContextClassLoader() == submission) {
+                fail(whatIsBeingTested + " could not be timed: an earlier test that timed out (" + thread.getName()
+                        + ") is still running and keeps the CPU busy. Fix that test first.");
+            }
+        }
+        throw new InconclusiveTestException(whatIsBeingTested
+                + " could not be timed: a test of another submission that timed out is still running.");
+    }
+
+    /**
+     * Takes the measurement MEASURE until the host was not too busy during it, or until
+     * <code>options.contendedRetries</code> retries, after which the current test is inconclusive.
+     */
+    private static Measurement measureUncontended(String whatIsBeingTested, MeasurementOptions options, Supplier<Measurement> measure) {
+        Measurement measurement = measure.get();
+        for (int retry = 0; retry < options.contendedRetries && measurement.isContended(options.maxContention); retry++) {
+            measurement = measure.get();
         }
-        else {
-            return ComplexityType.WORSE;
+        if (measurement.isContended(options.maxContention)) {
+            throw new InconclusiveTestException(String.format(
+                    "%s could not be timed reliably: the host was so busy that the measuring thread was not running %.0f%% of the time.",
+                    whatIsBeingTested, 100 * measurement.getContention()));
         }
+        return measurement;
     }
 
-    private static Set<Integer> findMaxes(List<Long> times) {
-        int maxIdx = 0;
-        int sndIdx = -1;
-        for (int i = 0; i < times.size(); i++) {
-            if (times.get(i) > times.get(maxIdx)) {
-                sndIdx = maxIdx;
-                maxIdx = i;
+    /**
+     * Fails if the complexity fitted to MEASUREMENT is slower than EXPECTED. A measurement that
+     * stopped early is judged by the same fit, over the sizes it got to.
+     */
+    private static void checkAtMost(String whatIsBeingTested, ComplexityType expected, Measurement measurement) {
+        ComplexityFit fit = fit(measurement);
+        if (fit.getType().isSlowerThan(expected)) {
+            String stoppedEarly = "";
+            if (measurement.ruledOut) {
+                int lastSize = measurement.sizes.get(measurement.sizes.size() - 1);
+                stoppedEarly = String.format("%nMeasuring stopped at size %d, since the running time had already grown %.1f times from size %d.",
+                        lastSize, measurement.growth(), measurement.sizes.get(0));
             }
+            fail(whatIsBeingTested + " is expected to be " + expected + " time or better. The actual calculated time is " + fit + "."
+                    + stoppedEarly
+                    + "\nTimes per call:\n" + measurement.histogramSummary()
+                    + "This test is non-deterministic which means it might not always be correct.  If you run it multiple times and it usually passes, that's probably fine.");
         }
-        return Set.of(maxIdx, sndIdx);
     }
 
-    private static boolean isApproximately(ComplexityType type, List<Long> times) {
-        List<Double> y = new ArrayList<>();
-        List<Double> x = new ArrayList<>();
-        Set<Integer> skips = findMaxes(times);
+    public static <DS> void assertSpaceAtMost(String whatIsBeingTested, ComplexityType expected, Function<Integer, DS> provideDSOfSize, int numberOfDoubles) {
+        checkSpaceAtMost(whatIsBeingTested, expected, fit(MeasurementEngine.measureRetainedSizes(provideDSOfSize, numberOfDoubles)), "space");
+    }
 
-        for (int i = 0; i < times.size(); i++) {
-            if (skips.contains(i)) {
-                continue;
-            }
+    public static <DS> void assertAllocationAtMost(String whatIsBeingTested, ComplexityType expected, Function<Integer, DS> provideDSOfSize, Consumer<DS> functionToTest, int numberOfDoubles) {
+        checkSpaceAtMost(whatIsBeingTested, expected, fit(MeasurementEngine.measureAllocations(provideDSOfSize, functionToTest, numberOfDoubles)), "allocation");
+    }
 
-            int numElements = (1 << (i + SKIP));
-            x.add((double) numElements);
-            double d = 0.0;
-            switch (type) {
-                case CONSTANT:
-                    d = times.get(i);
-                    break;
-                case LOGARITHMIC:
-                    d = times.get(i) / (Math.log10(numElements) / Math.log10(2));
-                    break;
-                case LINEAR:
-                    d = ((double)times.get(i)) / numElements;
-                    break;
-                case QUADRATIC:
-                    d = ((double)times.get(i)) / (numElements * numElements);
-                    break;
-                default:
-                    throw new RuntimeException("unimplemented isApproximately for " + type);
-            }
-            y.add(d);
+    private static void checkSpaceAtMost(String whatIsBeingTested, ComplexityType expected, ComplexityFit calculated, String what) {
+        if (calculated.getType().isSlowerThan(expected)) {
+            fail(whatIsBeingTested + " is expected to use " + expected + " " + what + " or better. The actual calculated " + what + " is " + calculated + ".");
         }
+    }
 
-        // Store sums
-        double sumX = 0;
-        double sumY = 0;
-        for (int i = 0; i < x.size(); i ++) {
-            sumX += x.get(i);
-            sumY += y.get(i);
-        }
+    public static <DS> void assertAmortizedAtMost(String whatIsBeingTested, ComplexityType expected, Supplier<DS> provideDS, Consumer<DS> operation, int numberOfDoubles, Cost cost) {
+        assertAmortizedAtMost(whatIsBeingTested, expected, provideDS, operation, numberOfDoubles, cost, new MeasurementOptions());
+    }
 
-        // Calc standard deviation of numElements
-        double std = 0;
-        for (int i = 0; i < x.size(); i ++) {
-            std += (Math.pow(x.get(i) - sumX / x.size(), 2));
+    public static <DS> void assertAmortizedAtMost(String whatIsBeingTested, ComplexityType expected, Supplier<DS> provideDS, Consumer<DS> operation, int numberOfDoubles, Cost cost, MeasurementOptions options) {
+        if (cost == Cost.TIME) {
+            requireNoRunawayTests(whatIsBeingTested);
         }
-        std /= times.size();
-        double slope;
-        double inter;
-
-        // If constant, no slope - best fit is mean of times
-        if (type == ComplexityType.CONSTANT) {
-            slope = 0;
-            inter = sumY / y.size();
+        ComplexityFit fit = fit(MeasurementEngine.measureAmortized(provideDS, operation, numberOfDoubles, options, cost));
+        if (fit.getType().isSlowerThan(expected)) {
+            fail(whatIsBeingTested + " is expected to be amortized " + expected + " " + cost + " or better. The actual calculated amortized " + cost + " per operation is " + fit + ".");
         }
-        // Otherwise, do least squares regression to find the best
-        // linear fit for the transformed times
-        else {
-            double cov = 0;
-            for (int i = 0; i < y.size(); i ++) {
-                cov += (x.get(i) - sumX / y.size()) * (y.get(i) - sumY / y.size());
+    }
 
-            }
-            cov /= y.size() - 1;
-            slope = cov / std;
-            inter = sumY / y.size() - slope * sumX / y.size();
+    /**
+     * Fails if STUDENTFUNCTION takes more than MAXRATIO times as long as REFERENCEFUNCTION at
+     * size SIZE, e.g. a MAXRATIO of 3 for "within 3x of the reference at N = 1e6".
+     */
+    public static <S, R> void assertWithinRatioOfReference(String whatIsBeingTested, double maxRatio, Function<Integer, S> provideStudentDS, Consumer<S> studentFunction, Function<Integer, R> provideReferenceDS, Consumer<R> referenceFunction, int size, MeasurementOptions options) {
+        requireNoRunawayTests(whatIsBeingTested);
+        ReferenceComparison comparison = compareToReference(provideStudentDS, studentFunction, provideReferenceDS, referenceFunction, size, options);
+        if (comparison.getRatio() > maxRatio) {
+            fail(String.format("%s is expected to take at most %.2f times as long as the reference solution. %s",
+                    whatIsBeingTested, maxRatio, comparison));
         }
+    }
 
-        // Calculate mean squared error
-        double mse = 0;
-        for (int i = 0; i < y.size(); i ++) {
-            mse += Math.pow(y.get(i) - inter + slope * x.get(i), 2);
+    /**
+     * Like assertWithinRatioOfReference, but the reference is measured only if the {@link CalibrationCache}
+     * of REFERENCECLASS on this kind of host has no measurement called WORKLOAD yet. The student and
+     * the reference are then not measured side by side, so mean times are compared.
+     */
+    public static <S, R> void assertWithinRatioOfCalibratedReference(String whatIsBeingTested, double maxRatio, Function<Integer, S> provideStudentDS, Consumer<S> studentFunction, Class<?> referenceClass, String workload, Function<Integer, R> provideReferenceDS, Consumer<R> referenceFunction, int size, MeasurementOptions options) {
+        requireNoRunawayTests(whatIsBeingTested);
+        Measurement reference = CalibrationCache.forReference(referenceClass).getOrMeasure(workload + " at " + size, options,
+                () -> measureUncontended("The reference solution", options,
+                        () -> MeasurementEngine.measureAt(provideReferenceDS, referenceFunction, size, options)));
+        Measurement student = MeasurementEngine.measureAt(provideStudentDS, studentFunction, size, options);
+        double ratio = (double) student.times.get(0) / Math.max(1, reference.times.get(0));
+        if (ratio > maxRatio) {
+            fail(String.format("%s is expected to take at most %.2f times as long as the reference solution. At N = %d, took %.2f times as long (%d ns against %d ns per call).",
+                    whatIsBeingTested, maxRatio, size, ratio, student.times.get(0), reference.times.get(0)));
         }
-
-        // Use R^2 measure to check fit
-        double rSq = 1 - mse / std;
-
-        // Tune depending on strictness - 0.95 accounts for variations
-        // *Should* actually be like 0.99, but sometimes weird heap operations
-        // happen and make certain runs take longer
-        // System.out.println(type + ", " + y + ", MSE: " + mse + ", R^2: " + rSq);
-        return rSq >= 0.92;
     }
 
-    public static <DS> void assertAtMost(String whatIsBeingTested, ComplexityType expected, Function<Integer, DS> provideDSOfSize, Consumer<DS> functionToTest, int numberOfDoubles) {
-        ComplexityType calculated = getEmpiricalComplexity(provideDSOfSize, functionToTest, numberOfDoubles);
-        if (calculated.isSlowerThan(expected)) {
-            fail(whatIsBeingTested + " is expected to be " + expected + " time or better. The actual calculated time is " + calculated + ".\nThis test is non-deterministic which means it might not always be correct.  If you run it multiple times and it usually passes, that's probably fine.");
-        }
+    /**
+     * Fails if FUNCTIONTOTEST grows faster than the reference solution does on the same workload,
+     * whose complexity is fitted to a measurement kept in the {@link CalibrationCache} of REFERENCECLASS.
+     */
+    public static <S, R> void assertAtMostReference(String whatIsBeingTested, Function<Integer, S> provideStudentDS, Consumer<S> studentFunction, Class<?> referenceClass, String workload, Function<Integer, R> provideReferenceDS, Consumer<R> referenceFunction, int numberOfDoubles, MeasurementOptions options) {
+        // Before the reference is measured, so that a disturbed calibration is never cached
+        requireNoRunawayTests(whatIsBeingTested);
+        Measurement reference = CalibrationCache.forReference(referenceClass).getOrMeasure(workload + " over " + numberOfDoubles + " doublings", options,
+                () -> measureUncontended("The reference solution", options,
+                        () -> MeasurementEngine.measureTimes(provideReferenceDS, referenceFunction, numberOfDoubles, options, null)));
+        assertAtMost(whatIsBeingTested, classify(reference), provideStudentDS, studentFunction, numberOfDoubles, options);
     }
 }
-
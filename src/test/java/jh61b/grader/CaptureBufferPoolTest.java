@@ -0,0 +1,56 @@
+package jh61b.grader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+public class CaptureBufferPoolTest {
+    @Test
+    public void releasedBuffersAreReusedEmpty() throws IOException {
+        CaptureBufferPool pool = new CaptureBufferPool();
+        HeadTailOutputStream buffer = pool.acquire(100);
+        OutputStream test = buffer.currentGeneration();
+        test.write("output of the first test".getBytes(StandardCharsets.UTF_8));
+        pool.release(buffer);
+
+        HeadTailOutputStream reused = pool.acquire(100);
+
+        assertSame(buffer, reused);
+        assertFalse(reused.written());
+        // A thread that the first test left behind cannot write into the next test's output
+        test.write("late".getBytes(StandardCharsets.UTF_8));
+        assertEquals("", reused.toString());
+    }
+
+    @Test
+    public void buffersArePooledBySize() {
+        CaptureBufferPool pool = new CaptureBufferPool();
+        HeadTailOutputStream small = pool.acquire(100);
+        pool.release(small);
+
+        HeadTailOutputStream large = pool.acquire(1000);
+
+        assertNotSame(small, large);
+        assertEquals(1000, large.getMaxSize());
+        assertSame(small, pool.acquire(100));
+    }
+
+    @Test
+    public void buffersInUseAreNotHandedOutTwice() {
+        CaptureBufferPool pool = new CaptureBufferPool();
+        HeadTailOutputStream first = pool.acquire(100);
+        HeadTailOutputStream second = pool.acquire(100);
+
+        assertNotSame(first, second);
+        pool.release(first);
+        assertSame(first, pool.acquire(100));
+        assertNotSame(second, pool.acquire(100));
+    }
+}
@@ -0,0 +1,220 @@
+package jh61b.grader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.platform.engine.discovery.DiscoverySelectors.selectClass;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder;
+import org.junit.platform.launcher.core.LauncherFactory;
+
+public class GradedTestListenerJSONTest {
+    @TempDir
+    Path directory;
+
+    /* Graded tests that are only run through the listener, never on their own. */
+    public static class Inconclusive {
+        @Test
+        @GradedTest(number = "1", max_score = 2)
+        public void passes() {
+        }
+
+        @Test
+        @GradedTest(number = "2", max_score = 3)
+        public void isInconclusive() {
+            System.out.println("measuring");
+            throw new InconclusiveTestException("The host was busy.");
+        }
+
+        @Test
+        @GradedTest(number = "3", max_score = 5)
+        public void fails() {
+            throw new AssertionError("wrong answer");
+        }
+    }
+
+    public static class StrayThread {
+        @Test
+        @GradedTest(number = "1")
+        public void printsFromAThreadOfItsOwn() throws InterruptedException {
+            System.out.println("from the test");
+            Thread thread = new Thread(() -> System.out.println("from a stray thread"));
+            thread.start();
+            thread.join();
+        }
+    }
+
+    public static class Allocates {
+        /* Keeps the allocation from being optimized away. */
+        static byte[] kept;
+
+        @Test
+        @GradedTest(number = "1")
+        public void allocatesTenMegabytes() {
+            kept = new byte[10_000_000];
+        }
+    }
+
+    public static class Exits {
+        @Test
+        @GradedTest(number = "1")
+        public void passes() {
+        }
+
+        @Test
+        @GradedTest(number = "2")
+        public void exits() {
+            System.exit(3);
+        }
+    }
+
+    /**
+     * Grades Exits with a journal to the result file in args[0]. Run in a JVM of its own, since
+     * the second test stops it.
+     */
+    public static void main(String[] args) {
+        GradedTestListenerJSON listener = new GradedTestListenerJSON();
+        listener.setResultPath(Path.of(args[0]));
+        listener.setJournaling(true);
+        execute(Exits.class, listener);
+    }
+
+    private static void execute(Class<?> fixture, GradedTestListenerJSON listener) {
+        LauncherFactory.create().execute(
+                LauncherDiscoveryRequestBuilder.request().selectors(selectClass(fixture)).build(), listener);
+    }
+
+    /**
+     * Runs the graded tests of FIXTURE with LISTENER writing to a result file, and returns the
+     * results keyed by test number.
+     */
+    private Map<String, JsonObject> run(Class<?> fixture, GradedTestListenerJSON listener) throws IOException {
+        Path resultPath = directory.resolve("results.json");
+        listener.setResultPath(resultPath);
+        execute(fixture, listener);
+
+        String json = new String(Files.readAllBytes(resultPath), StandardCharsets.UTF_8);
+        Map<String, JsonObject> results = new HashMap<>();
+        for (JsonElement test : JsonParser.parseString(json).getAsJsonObject().getAsJsonArray("tests")) {
+            results.put(test.getAsJsonObject().get("number").getAsString(), test.getAsJsonObject());
+        }
+        return results;
+    }
+
+    private static boolean isInconclusive(JsonObject result) {
+        return result.has("extra_data") && result.getAsJsonObject("extra_data").has("inconclusive");
+    }
+
+    @Test
+    public void inconclusiveTestsKeepTheirScore() throws IOException {
+        Map<String, JsonObject> results = run(Inconclusive.class, new GradedTestListenerJSON());
+
+        JsonObject inconclusive = results.get("2");
+        assertEquals(3, inconclusive.get("score").getAsDouble(), 0);
+        assertTrue(isInconclusive(inconclusive), inconclusive.toString());
+        String output = inconclusive.get("output").getAsString();
+        assertTrue(output.startsWith("Test Inconclusive: The host was busy."), output);
+        assertTrue(output.contains("measuring"), output);
+
+        assertEquals(2, results.get("1").get("score").getAsDouble(), 0);
+        assertEquals(0, results.get("3").get("score").getAsDouble(), 0);
+        assertFalse(isInconclusive(results.get("3")));
+    }
+
+    @Test
+    public void outputOfThreadsWithoutARouteStaysOutOfResultsOnStdout() {
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        try {
+            System.setOut(new PrintStream(out, true));
+            System.setErr(new PrintStream(err, true));
+            execute(StrayThread.class, new GradedTestListenerJSON());
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+
+        JsonObject result = JsonParser.parseString(out.toString()).getAsJsonObject()
+                .getAsJsonArray("tests").get(0).getAsJsonObject();
+        String output = result.get("output").getAsString();
+        assertTrue(output.contains("from the test"), output);
+        assertFalse(output.contains("from a stray thread"), output);
+        assertTrue(err.toString().contains("from a stray thread"), err.toString());
+    }
+
+    @Test
+    public void streamedResultsMatchBufferedOnes() throws IOException {
+        Map<String, JsonObject> buffered = run(Inconclusive.class, new GradedTestListenerJSON());
+        GradedTestListenerJSON listener = new GradedTestListenerJSON();
+        listener.setStreaming(true);
+        Map<String, JsonObject> streamed = run(Inconclusive.class, listener);
+
+        assertEquals(buffered.keySet(), streamed.keySet());
+        for (String number : buffered.keySet()) {
+            for (String key : new String[] {"name", "score", "max_score", "output"}) {
+                assertEquals(buffered.get(number).get(key), streamed.get(number).get(key), number + " " + key);
+            }
+        }
+        JsonObject results = JsonParser.parseString(Files.readString(directory.resolve("results.json"))).getAsJsonObject();
+        assertTrue(results.has("execution_time"), results.toString());
+    }
+
+    @Test
+    public void resourceUsageIsRecordedPerTest() throws IOException {
+        JsonObject extraData = run(Allocates.class, new GradedTestListenerJSON()).get("1").getAsJsonObject("extra_data");
+
+        assertTrue(extraData.get("wall_time_ns").getAsLong() > 0, extraData.toString());
+        if (extraData.has("cpu_time_ns")) {
+            assertTrue(extraData.get("cpu_time_ns").getAsLong() >= 0, extraData.toString());
+        }
+        if (extraData.has("allocated_bytes")) {
+            assertTrue(extraData.get("allocated_bytes").getAsLong() >= 10_000_000, extraData.toString());
+        }
+    }
+
+    @Test
+    public void journaledResultsAreWrittenAtTheEnd() throws IOException {
+        GradedTestListenerJSON listener = new GradedTestListenerJSON();
+        listener.setJournaling(true);
+        Map<String, JsonObject> results = run(Inconclusive.class, listener);
+
+        assertEquals(3, results.size());
+        assertEquals(0, results.get("3").get("score").getAsDouble(), 0);
+        assertFalse(Files.exists(ResultJournal.journalPath(directory.resolve("results.json"))));
+    }
+
+    @Test
+    public void journaledResultsSurviveSystemExit() throws IOException, InterruptedException {
+        Path resultPath = directory.resolve("results.json");
+        Process process = new ProcessBuilder(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"),
+                GradedTestListenerJSONTest.class.getName(), resultPath.toString())
+                .redirectErrorStream(true)
+                .redirectOutput(directory.resolve("jvm.log").toFile())
+                .start();
+
+        assertEquals(3, process.waitFor(), Files.readString(directory.resolve("jvm.log")));
+        JsonObject results = JsonParser.parseString(Files.readString(resultPath)).getAsJsonObject();
+        assertEquals(1, results.getAsJsonArray("tests").size());
+        assertEquals("1", results.getAsJsonArray("tests").get(0).getAsJsonObject().get("number").getAsString());
+        assertTrue(results.get("output").getAsString().startsWith("Grading did not finish."), results.toString());
+        assertFalse(Files.exists(ResultJournal.journalPath(resultPath)));
+    }
+}
@@ -0,0 +1,142 @@
+package jh61b.grader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.platform.engine.discovery.DiscoverySelectors.selectClass;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder;
+import org.junit.platform.launcher.core.LauncherFactory;
+
+import jh61b.utils.MeasurementOptions;
+import jh61b.utils.RuntimeInstrumentation;
+import jh61b.utils.RuntimeInstrumentation.ComplexityType;
+
+public class GradedTestTimeoutExtensionTest {
+    @TempDir
+    Path directory;
+
+    /* Lets the test that ignores interrupts finish, so that it does not outlive this test class. */
+    private static volatile boolean released;
+
+    /* Graded tests that are only run through the listener, never on their own. */
+    public static class Stuck {
+        @Test
+        @GradedTest(number = "1", timeout_ms = 100)
+        public void sleepsForever() throws InterruptedException {
+            System.out.println("going to sleep");
+            Thread.sleep(Long.MAX_VALUE);
+        }
+
+        @Test
+        @GradedTest(number = "2", timeout_ms = 5000)
+        public void finishesInTime() {
+            System.out.println("done");
+        }
+    }
+
+    @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+    public static class Runaway {
+        @Test
+        @Order(1)
+        @GradedTest(number = "1", timeout_ms = 100)
+        public void ignoresInterrupts() {
+            while (!released) {
+                Thread.onSpinWait();
+            }
+        }
+
+        @Test
+        @Order(2)
+        @GradedTest(number = "2")
+        public void isTimed() {
+            RuntimeInstrumentation.assertAtMost("Doing nothing", ComplexityType.CONSTANT,
+                    n -> n, n -> { }, 10, new MeasurementOptions());
+        }
+    }
+
+    /**
+     * Runs the graded tests of FIXTURE with the JSON listener, and returns the results keyed by
+     * test number.
+     */
+    private Map<String, JsonObject> run(Class<?> fixture) throws IOException {
+        Path resultPath = directory.resolve("results.json");
+        GradedTestListenerJSON listener = new GradedTestListenerJSON();
+        listener.setResultPath(resultPath);
+        LauncherFactory.create().execute(
+                LauncherDiscoveryRequestBuilder.request().selectors(selectClass(fixture)).build(), listener);
+
+        Map<String, JsonObject> results = new HashMap<>();
+        for (JsonElement test : JsonParser.parseString(Files.readString(resultPath)).getAsJsonObject().getAsJsonArray("tests")) {
+            results.put(test.getAsJsonObject().get("number").getAsString(), test.getAsJsonObject());
+        }
+        return results;
+    }
+
+    private static int runawayThreads(JsonObject result) {
+        JsonObject extraData = result.getAsJsonObject("extra_data");
+        return extraData.has("runaway_test_threads") ? extraData.get("runaway_test_threads").getAsInt() : 0;
+    }
+
+    @Test
+    public void interruptsAndFailsTestsThatRunOverTheirBudget() throws IOException {
+        long start = System.nanoTime();
+        Map<String, JsonObject> results = run(Stuck.class);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        JsonObject stuck = results.get("1");
+        assertEquals(0, stuck.get("score").getAsDouble(), 0);
+        String output = stuck.get("output").getAsString();
+        assertTrue(output.contains("Test timed out after 100 ms"), output);
+        // The stack trace shows where the test was stuck, and its output is kept
+        assertTrue(output.contains("sleepsForever"), output);
+        assertTrue(output.contains("going to sleep"), output);
+        // The interrupt ended the sleep, so nothing is left running
+        assertEquals(0, runawayThreads(stuck));
+
+        assertEquals(1, results.get("2").get("score").getAsDouble(), 0);
+        assertTrue(results.get("2").get("output").getAsString().contains("done"));
+        assertTrue(elapsedMs < 4000, elapsedMs + " ms");
+    }
+
+    @Test
+    public void timingAssertionsFailWhileATimedOutTestIsStillRunning() throws Exception {
+        released = false;
+        Map<String, JsonObject> results;
+        try {
+            results = run(Runaway.class);
+            assertEquals(1, GradedTestTimeoutExtension.runawayThreads().size());
+        } finally {
+            released = true;
+        }
+        for (Thread thread : GradedTestTimeoutExtension.runawayThreads()) {
+            thread.join();
+        }
+
+        JsonObject runaway = results.get("1");
+        assertEquals(0, runaway.get("score").getAsDouble(), 0);
+        assertEquals(1, runawayThreads(runaway));
+
+        JsonObject timed = results.get("2");
+        assertEquals(0, timed.get("score").getAsDouble(), 0);
+        assertEquals(1, runawayThreads(timed));
+        String output = timed.get("output").getAsString();
+        assertTrue(output.contains("Doing nothing could not be timed: an earlier test that timed out"), output);
+        assertFalse(timed.getAsJsonObject("extra_data").has("inconclusive"));
+        assertTrue(GradedTestTimeoutExtension.runawayThreads().isEmpty());
+    }
+}
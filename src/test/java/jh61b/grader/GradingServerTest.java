@@ -0,0 +1,110 @@
+package jh61b.grader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class GradingServerTest {
+    private static final String TOKEN = "secret";
+
+    @TempDir
+    Path directory;
+
+    /* Graded tests that are only run through the server, never on their own. */
+    public static class Passes {
+        @Test
+        @GradedTest(number = "1", max_score = 2)
+        public void passes() {
+        }
+    }
+
+    public static class OverrunsItsJob {
+        @Test
+        @GradedTest(number = "1")
+        public void spinsThroughInterrupts() {
+            long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(2500);
+            while (System.nanoTime() < end) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * Sends REQUEST to the server on PORT and returns its reply.
+     */
+    private static String send(int port, String request) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            out.println(request);
+            return in.readLine();
+        }
+    }
+
+    private static String job(String token, Class<?> testClass, String outputPath) {
+        return token + "\t" + testClass.getName() + "\t" + System.getProperty("java.class.path") + "\t" + outputPath;
+    }
+
+    @Test
+    public void gradesJobsUntilToldToQuit() throws Exception {
+        Path tokenFile = directory.resolve("token");
+        Files.writeString(tokenFile, TOKEN);
+        Files.setPosixFilePermissions(tokenFile, PosixFilePermissions.fromString("rw-------"));
+        Path resultsDir = directory.resolve("results");
+        Process server = new ProcessBuilder(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Djava.security.manager=allow",
+                "-cp", System.getProperty("java.class.path"),
+                GradingServer.class.getName(),
+                "--token-file", tokenFile.toString(),
+                "--results-dir", resultsDir.toString(),
+                "--job-timeout-ms", "1000")
+                .redirectError(directory.resolve("server.log").toFile())
+                .start();
+        try {
+            String listening = new BufferedReader(new InputStreamReader(server.getInputStream(), StandardCharsets.UTF_8)).readLine();
+            assertTrue(listening != null && listening.startsWith("Grading server listening on port "),
+                    listening + "\n" + Files.readString(directory.resolve("server.log")));
+            int port = Integer.parseInt(listening.substring(listening.lastIndexOf(' ') + 1));
+
+            assertEquals("ERROR invalid token", send(port, job("wrong", Passes.class, "passes.json")));
+            assertTrue(send(port, job(TOKEN, Passes.class, "../escaped.json")).startsWith("ERROR"));
+            assertFalse(Files.exists(directory.resolve("escaped.json")));
+
+            assertEquals("ERROR job timed out after 1000 ms", send(port, job(TOKEN, OverrunsItsJob.class, "overrun.json")));
+            // Only accepted once the timed-out job has exited, and graded on its own
+            assertEquals("OK", send(port, job(TOKEN, Passes.class, "sub/passes.json")));
+            JsonObject result = JsonParser.parseString(Files.readString(resultsDir.resolve("sub/passes.json")))
+                    .getAsJsonObject().getAsJsonArray("tests").get(0).getAsJsonObject();
+            assertEquals(2, result.get("score").getAsDouble(), 0);
+            assertFalse(Files.exists(resultsDir.resolve("overrun.json")));
+            try (Stream<Path> files = Files.list(resultsDir)) {
+                assertEquals(1, files.count(), "only the sub directory is left");
+            }
+
+            assertEquals("OK", send(port, TOKEN + "\tQUIT"));
+            assertTrue(server.waitFor(10, TimeUnit.SECONDS));
+        } finally {
+            server.destroyForcibly();
+        }
+    }
+}
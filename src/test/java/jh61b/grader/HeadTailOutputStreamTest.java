@@ -0,0 +1,96 @@
+package jh61b.grader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+public class HeadTailOutputStreamTest {
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz";
+
+    private static String marker(long elided) {
+        return String.format("%n... %d bytes truncated due to excessive output ...%n", elided);
+    }
+
+    private static void write(OutputStream out, String s) throws IOException {
+        out.write(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void keepsOutputThatFits() throws IOException {
+        HeadTailOutputStream out = new HeadTailOutputStream(8, 8);
+        assertFalse(out.written());
+        write(out, "hello, world");
+
+        assertTrue(out.written());
+        assertFalse(out.truncated());
+        assertEquals("hello, world", out.toString());
+    }
+
+    @Test
+    public void keepsHeadAndTailOfLongOutput() throws IOException {
+        HeadTailOutputStream out = new HeadTailOutputStream(4, 6);
+        write(out, ALPHABET);
+
+        assertTrue(out.truncated());
+        assertEquals(16, out.elided());
+        assertEquals("abcd" + marker(16) + "uvwxyz", out.toString());
+    }
+
+    @Test
+    public void bytesWrittenOneAtATimeAreKeptLikeArrays() throws IOException {
+        for (int split = 0; split <= ALPHABET.length(); split++) {
+            HeadTailOutputStream single = new HeadTailOutputStream(5, 7);
+            for (byte b : ALPHABET.getBytes(StandardCharsets.UTF_8)) {
+                single.write(b);
+            }
+            // Two arrays, split anywhere, so that the tail ring wraps around at different places
+            HeadTailOutputStream arrays = new HeadTailOutputStream(5, 7);
+            write(arrays, ALPHABET.substring(0, split));
+            write(arrays, ALPHABET.substring(split));
+
+            assertEquals(single.toString(), arrays.toString(), "split at " + split);
+            assertEquals("abcde" + marker(14) + "tuvwxyz", arrays.toString(), "split at " + split);
+        }
+    }
+
+    @Test
+    public void keepsOnlyTheHeadWithoutATail() throws IOException {
+        HeadTailOutputStream out = new HeadTailOutputStream(3, 0);
+        write(out, "abc");
+        assertFalse(out.truncated());
+        write(out, "def");
+
+        assertEquals(3, out.elided());
+        assertEquals("abc" + marker(3), out.toString());
+    }
+
+    @Test
+    public void splitsMaxSizeBetweenHeadAndTail() throws IOException {
+        HeadTailOutputStream out = new HeadTailOutputStream(5);
+        write(out, ALPHABET);
+
+        assertEquals(5, out.getMaxSize());
+        assertEquals("abc" + marker(21) + "yz", out.toString());
+    }
+
+    @Test
+    public void resetDiscardsOutputAndStopsOldViews() throws IOException {
+        HeadTailOutputStream out = new HeadTailOutputStream(4, 4);
+        OutputStream oldView = out.currentGeneration();
+        write(oldView, ALPHABET);
+        out.reset();
+
+        assertFalse(out.written());
+        write(oldView, "stale");
+        assertFalse(out.written());
+
+        write(out.currentGeneration(), "fresh");
+        assertEquals("fresh", out.toString());
+    }
+}
@@ -0,0 +1,90 @@
+package jh61b.grader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class JUnitUtilitiesTest {
+    private static StackTraceElement frame(String method, int line) {
+        return new StackTraceElement("student.Recursion", method, "Recursion.java", line);
+    }
+
+    /**
+     * Returns an error whose stack trace is FRAMES, from the innermost call outwards.
+     */
+    private static StackOverflowError overflowWith(List<StackTraceElement> frames) {
+        StackOverflowError error = new StackOverflowError();
+        error.setStackTrace(frames.toArray(new StackTraceElement[0]));
+        return error;
+    }
+
+    private static long countLines(String s) {
+        return s.lines().count();
+    }
+
+    @Test
+    public void foldsRecursionIntoOneLine() {
+        List<StackTraceElement> frames = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            frames.add(frame("recurse", 7));
+        }
+        frames.add(frame("main", 20));
+
+        String shown = JUnitUtilities.throwableToString(overflowWith(frames));
+
+        assertTrue(shown.contains("[... 999 more frames of student.Recursion.recurse ...]"), shown);
+        assertTrue(shown.contains("at student.Recursion.main:20 (Recursion.java)"), shown);
+        // The error, the first call, the fold and main
+        assertEquals(4, countLines(shown), shown);
+    }
+
+    @Test
+    public void foldsMutualRecursionAfterTheFramesAboveIt() {
+        List<StackTraceElement> frames = new ArrayList<>();
+        frames.add(frame("helper", 3));
+        for (int i = 0; i < 100; i++) {
+            frames.add(frame("isEven", 10));
+            frames.add(frame("isOdd", 14));
+        }
+        frames.add(frame("main", 20));
+
+        String shown = JUnitUtilities.throwableToString(overflowWith(frames));
+
+        assertTrue(shown.contains("at student.Recursion.helper:3 (Recursion.java)"), shown);
+        assertTrue(shown.contains("[... 198 more frames of student.Recursion.isEven -> student.Recursion.isOdd ...]"), shown);
+        assertEquals(6, countLines(shown), shown);
+    }
+
+    @Test
+    public void doesNotFoldFramesThatRepeatTooRarely() {
+        List<StackTraceElement> frames = new ArrayList<>();
+        frames.add(frame("recurse", 7));
+        frames.add(frame("recurse", 7));
+        frames.add(frame("main", 20));
+
+        String shown = JUnitUtilities.throwableToString(overflowWith(frames));
+
+        assertFalse(shown.contains("more frames of"), shown);
+        assertEquals(4, countLines(shown), shown);
+    }
+
+    @Test
+    public void failuresWithTheSameTraceReferToTheFirstTest() {
+        List<StackTraceElement> frames = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            frames.add(frame("recurse", 7));
+        }
+        FailureFingerprints failures = new FailureFingerprints();
+
+        String first = JUnitUtilities.throwableToString(overflowWith(frames), failures, "test 1#01");
+        String second = JUnitUtilities.throwableToString(overflowWith(frames), failures, "test 1#02");
+
+        assertTrue(first.contains("more frames of"), first);
+        assertTrue(second.contains("(same stack trace as test 1#01)"), second);
+    }
+}
@@ -0,0 +1,49 @@
+package jh61b.grader;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class PrefixTrieTest {
+    @Test
+    public void matchesStringsThatStartWithAPrefix() {
+        PrefixTrie trie = new PrefixTrie(List.of("java.util.stream.", "jdk.internal.", "sun."));
+
+        assertTrue(trie.matchesPrefixOf("java.util.stream.ReferencePipeline.forEach("));
+        assertTrue(trie.matchesPrefixOf("sun.reflect.Method.invoke("));
+        assertTrue(trie.matchesPrefixOf("jdk.internal."));
+        assertFalse(trie.matchesPrefixOf("java.util.ArrayList.get("));
+        assertFalse(trie.matchesPrefixOf("jdk.internal"));
+        assertFalse(trie.matchesPrefixOf("sunny.Day.run("));
+        assertFalse(trie.matchesPrefixOf(""));
+    }
+
+    @Test
+    public void matchesTheShorterOfTwoNestedPrefixes() {
+        PrefixTrie trie = new PrefixTrie(List.of("java.util.concurrent.CompletableFuture$AsyncSupply.run(", "java.util.concurrent."));
+
+        assertTrue(trie.matchesPrefixOf("java.util.concurrent.ThreadPoolExecutor.runWorker("));
+        assertTrue(trie.matchesPrefixOf("java.util.concurrent.CompletableFuture$AsyncSupply.run("));
+        assertFalse(trie.matchesPrefixOf("java.util.Concurrent"));
+    }
+
+    @Test
+    public void matchesPrefixesThatShareNoFirstCharacter() {
+        PrefixTrie trie = new PrefixTrie(List.of("[[Reflective call:", "[[Testing framework:", "org.junit."));
+
+        assertTrue(trie.matchesPrefixOf("[[Testing framework: 12 frames]]"));
+        assertTrue(trie.matchesPrefixOf("org.junit.jupiter.engine.Foo.bar("));
+        assertFalse(trie.matchesPrefixOf("[[Something else]]"));
+    }
+
+    @Test
+    public void emptyPrefixMatchesEverythingAndNoPrefixesMatchNothing() {
+        assertTrue(new PrefixTrie(List.of("")).matchesPrefixOf("anything"));
+        assertTrue(new PrefixTrie(List.of("")).matchesPrefixOf(""));
+        assertFalse(new PrefixTrie(List.of()).matchesPrefixOf("anything"));
+        assertFalse(new PrefixTrie(List.of()).matchesPrefixOf(""));
+    }
+}
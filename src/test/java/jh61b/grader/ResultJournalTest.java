@@ -0,0 +1,90 @@
+package jh61b.grader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ResultJournalTest {
+    @TempDir
+    Path directory;
+
+    private static TestResult result(String name, double score) {
+        TestResult testResult = new TestResult(name, "1", 2);
+        testResult.setScore(score);
+        return testResult;
+    }
+
+    private static JsonObject read(Path resultPath) throws IOException {
+        return JsonParser.parseString(Files.readString(resultPath)).getAsJsonObject();
+    }
+
+    @Test
+    public void writesEveryAppendedResult() throws IOException {
+        Path resultPath = directory.resolve("results.json");
+        try (ResultJournal journal = new ResultJournal(resultPath)) {
+            journal.append(result("first", 2));
+            journal.append(result("second", 0));
+        }
+
+        assertEquals(2, ResultJournal.writeResults(resultPath, 1234L, "All done"));
+
+        JsonObject results = read(resultPath);
+        assertEquals(1234, results.get("execution_time").getAsLong());
+        assertEquals("All done", results.get("output").getAsString());
+        JsonArray tests = results.getAsJsonArray("tests");
+        assertEquals(2, tests.size());
+        assertEquals("first", tests.get(0).getAsJsonObject().get("name").getAsString());
+        assertEquals(0, tests.get(1).getAsJsonObject().get("score").getAsDouble(), 0);
+        assertFalse(Files.exists(ResultJournal.journalPath(resultPath)));
+    }
+
+    @Test
+    public void recoversFromAJournalThatWasNeverClosed() throws IOException {
+        Path resultPath = directory.resolve("results.json");
+        ResultJournal journal = new ResultJournal(resultPath);
+        journal.append(result("finished", 2));
+
+        // As if the JVM died while the journal was still open
+        assertEquals(1, ResultJournal.writeResults(resultPath, null, null));
+        journal.close();
+
+        JsonObject results = read(resultPath);
+        assertFalse(results.has("execution_time"));
+        assertEquals(1, results.getAsJsonArray("tests").size());
+    }
+
+    @Test
+    public void skipsALineCutOffByACrash() throws IOException {
+        Path resultPath = directory.resolve("results.json");
+        try (ResultJournal journal = new ResultJournal(resultPath)) {
+            journal.append(result("finished", 2));
+        }
+        Files.write(ResultJournal.journalPath(resultPath), "{\"name\": \"cut off".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        assertEquals(1, ResultJournal.writeResults(resultPath, null, null));
+        assertEquals(1, read(resultPath).getAsJsonArray("tests").size());
+    }
+
+    @Test
+    public void startsAnEmptyJournalForEveryRun() throws IOException {
+        Path resultPath = directory.resolve("results.json");
+        try (ResultJournal journal = new ResultJournal(resultPath)) {
+            journal.append(result("from an earlier run", 2));
+        }
+        new ResultJournal(resultPath).close();
+
+        assertEquals(0, ResultJournal.writeResults(resultPath, null, null));
+    }
+}
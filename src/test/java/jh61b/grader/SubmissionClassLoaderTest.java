@@ -0,0 +1,82 @@
+package jh61b.grader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.tools.ToolProvider;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SubmissionClassLoaderTest {
+    @TempDir
+    Path directory;
+
+    /**
+     * Compiles the classes SOURCES of the package submission into the directory NAME, and
+     * returns its URL.
+     */
+    private URL compile(String name, String... sources) throws Exception {
+        Path classes = directory.resolve(name);
+        Path packageDirectory = Files.createDirectories(classes.resolve("submission"));
+        String[] arguments = new String[sources.length / 2 + 3];
+        arguments[0] = "-proc:none";
+        arguments[1] = "-d";
+        arguments[2] = classes.toString();
+        for (int i = 0; i < sources.length; i += 2) {
+            Path source = packageDirectory.resolve(sources[i] + ".java");
+            Files.writeString(source, "package submission;\n" + sources[i + 1]);
+            arguments[i / 2 + 3] = source.toString();
+        }
+        assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null, arguments));
+        return classes.toUri().toURL();
+    }
+
+    private static String greeting(ClassLoader loader) throws Exception {
+        return (String) Class.forName("submission.Greeter", true, loader).getMethod("greet").invoke(null);
+    }
+
+    @Test
+    public void submissionClassesComeBeforeTheParents() throws Exception {
+        URL parentClasses = compile("parent",
+                "Greeter", "public class Greeter { public static String greet() { return \"parent \" + Helper.NAME; } }",
+                "Helper", "public class Helper { public static final String NAME = \"helper\"; }");
+        URL studentClasses = compile("student",
+                "Greeter", "public class Greeter { public static String greet() { return \"student \" + Helper.class.getClassLoader().getClass().getSimpleName(); } }",
+                "Helper", "public class Helper { }");
+        Files.delete(Path.of(studentClasses.toURI()).resolve("submission/Helper.class"));
+
+        try (URLClassLoader parent = new URLClassLoader(new URL[] {parentClasses}, getClass().getClassLoader());
+             SubmissionClassLoader loader = new SubmissionClassLoader(new URL[] {studentClasses}, parent)) {
+            assertEquals("parent helper", greeting(parent));
+            // The student's Greeter wins, and what the submission lacks comes from the parent
+            assertEquals("student URLClassLoader", greeting(loader));
+            assertSame(parent.loadClass("submission.Helper"), loader.loadClass("submission.Helper"));
+        }
+    }
+
+    @Test
+    public void submissionsAreIsolatedButShareTheGrader() throws Exception {
+        URL classes = compile("student",
+                "Greeter", "public class Greeter { static int calls; public static String greet() { return \"call \" + ++calls; } }");
+        ClassLoader parent = getClass().getClassLoader();
+
+        try (SubmissionClassLoader first = new SubmissionClassLoader(new URL[] {classes}, parent);
+             SubmissionClassLoader second = new SubmissionClassLoader(new URL[] {classes}, parent)) {
+            assertEquals("call 1", greeting(first));
+            assertEquals("call 2", greeting(first));
+            // Static state of one submission is not seen by another
+            assertEquals("call 1", greeting(second));
+            assertNotSame(first.loadClass("submission.Greeter"), second.loadClass("submission.Greeter"));
+
+            assertSame(GradedTest.class, first.loadClass(GradedTest.class.getName()));
+            assertSame(Test.class, second.loadClass(Test.class.getName()));
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package jh61b.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.function.IntUnaryOperator;
+
+import org.junit.jupiter.api.Test;
+
+import jh61b.utils.RuntimeInstrumentation.ComplexityType;
+import jh61b.utils.RuntimeInstrumentation.Cost;
+
+public class AmortizedComplexityTest {
+    /* An array list that counts every element it writes, including those it copies when it grows. */
+    private static class CountingList {
+        private final IntUnaryOperator grow;
+        private int[] items = new int[1];
+        private int size = 0;
+
+        CountingList(IntUnaryOperator grow) {
+            this.grow = grow;
+        }
+
+        void add(int item) {
+            if (size == items.length) {
+                int[] larger = new int[grow.applyAsInt(items.length)];
+                for (int i = 0; i < size; i++) {
+                    larger[i] = items[i];
+                    OperationCounter.count();
+                }
+                items = larger;
+            }
+            items[size++] = item;
+            OperationCounter.count();
+        }
+    }
+
+    @Test
+    public void geometricResizingIsAmortizedConstant() {
+        assertEquals(ComplexityType.CONSTANT, RuntimeInstrumentation.getAmortizedComplexity(
+                () -> new CountingList(length -> 2 * length), list -> list.add(1), 8, Cost.OPERATIONS));
+        RuntimeInstrumentation.assertAmortizedAtMost("add", ComplexityType.CONSTANT,
+                () -> new CountingList(length -> 2 * length), list -> list.add(1), 8, Cost.OPERATIONS);
+    }
+
+    @Test
+    public void arithmeticResizingIsAmortizedLinear() {
+        assertEquals(ComplexityType.LINEAR, RuntimeInstrumentation.getAmortizedComplexity(
+                () -> new CountingList(length -> length + 16), list -> list.add(1), 8, Cost.OPERATIONS));
+        AssertionError failure = assertThrows(AssertionError.class, () -> RuntimeInstrumentation.assertAmortizedAtMost(
+                "add", ComplexityType.CONSTANT, () -> new CountingList(length -> length + 16), list -> list.add(1),
+                8, Cost.OPERATIONS));
+        assertTrue(failure.getMessage().startsWith("add is expected to be amortized constant operations or better."),
+                failure.getMessage());
+    }
+}
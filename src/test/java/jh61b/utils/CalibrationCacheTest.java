@@ -0,0 +1,129 @@
+package jh61b.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.tools.ToolProvider;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CalibrationCacheTest {
+    @TempDir
+    Path directory;
+
+    /* Stands in for a reference class. */
+    public static class Reference {
+    }
+
+    private static Measurement measurement(long... times) {
+        Measurement measurement = new Measurement();
+        for (int i = 0; i < times.length; i++) {
+            measurement.add(100 << i, times[i]);
+        }
+        return measurement;
+    }
+
+    /* Returns MEASUREMENT, counting how often it had to be taken. */
+    private static Supplier<Measurement> counting(AtomicInteger measured, Measurement measurement) {
+        return () -> {
+            measured.incrementAndGet();
+            return measurement;
+        };
+    }
+
+    @Test
+    public void storedMeasurementsRoundTrip() {
+        Path cacheDirectory = directory.resolve("cache");
+        MeasurementOptions options = new MeasurementOptions();
+        AtomicInteger measured = new AtomicInteger();
+
+        Measurement first = CalibrationCache.forReference(Reference.class, cacheDirectory)
+                .getOrMeasure("insert", options, counting(measured, measurement(10, 20, 40)));
+        // A new cache reads the file that the first one wrote
+        Measurement cached = CalibrationCache.forReference(Reference.class, cacheDirectory)
+                .getOrMeasure("insert", options, counting(measured, measurement(1, 1, 1)));
+
+        assertEquals(1, measured.get());
+        assertEquals(first.getSizes(), cached.getSizes());
+        assertEquals(List.of(10L, 20L, 40L), cached.getTimes());
+        assertTrue(Files.exists(CalibrationCache.forReference(Reference.class, cacheDirectory).getPath()));
+    }
+
+    @Test
+    public void otherWorkloadsAndOptionsAreMeasuredAgain() {
+        CalibrationCache cache = CalibrationCache.forReference(Reference.class, directory);
+        AtomicInteger measured = new AtomicInteger();
+
+        cache.getOrMeasure("insert", new MeasurementOptions(), counting(measured, measurement(10)));
+        cache.getOrMeasure("remove", new MeasurementOptions(), counting(measured, measurement(10)));
+        cache.getOrMeasure("insert", new MeasurementOptions().iterations(99), counting(measured, measurement(10)));
+        cache.getOrMeasure("insert", new MeasurementOptions(), counting(measured, measurement(10)));
+
+        assertEquals(3, measured.get());
+    }
+
+    @Test
+    public void unreadableFilesAreMeasuredAgain() throws IOException {
+        CalibrationCache cache = CalibrationCache.forReference(Reference.class, directory);
+        Files.writeString(cache.getPath(), "{ not json");
+        AtomicInteger measured = new AtomicInteger();
+
+        Measurement measurement = cache.getOrMeasure("insert", new MeasurementOptions(), counting(measured, measurement(7)));
+
+        assertEquals(1, measured.get());
+        assertEquals(List.of(7L), measurement.getTimes());
+    }
+
+    /**
+     * Compiles the classes SOURCES of the package calibrated into a directory of its own, and
+     * returns the path of the calibration file of AGAPIStack loaded from there.
+     */
+    private Path calibrationPathOf(String name, String... sources) throws Exception {
+        Path classes = directory.resolve(name);
+        Path packageDirectory = Files.createDirectories(classes.resolve("calibrated"));
+        String[] arguments = new String[sources.length / 2 + 3];
+        arguments[0] = "-proc:none";
+        arguments[1] = "-d";
+        arguments[2] = classes.toString();
+        for (int i = 0; i < sources.length; i += 2) {
+            Path source = packageDirectory.resolve(sources[i] + ".java");
+            Files.writeString(source, "package calibrated;\n" + sources[i + 1]);
+            arguments[i / 2 + 3] = source.toString();
+        }
+        assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null, arguments));
+        try (URLClassLoader loader = new URLClassLoader(new URL[] {classes.toUri().toURL()}, null)) {
+            return CalibrationCache.forReference(Class.forName("calibrated.AGAPIStack", false, loader), directory).getPath();
+        }
+    }
+
+    @Test
+    public void onlyTheReferenceAndTheClassesItUsesAreHashed() throws Exception {
+        String reference = "public class AGAPIStack { AGAPINode top; class Iterator { } }";
+        String node = "class AGAPINode { int item; }";
+
+        Path original = calibrationPathOf("original", "AGAPIStack", reference, "AGAPINode", node,
+                "Stack", "public class Stack { }");
+        Path otherSubmission = calibrationPathOf("submission", "AGAPIStack", reference, "AGAPINode", node,
+                "Stack", "public class Stack { int size; }", "Helper", "class Helper { }");
+        Path changedHelper = calibrationPathOf("helper", "AGAPIStack", reference,
+                "AGAPINode", "class AGAPINode { long item; }", "Stack", "public class Stack { }");
+        Path changedNested = calibrationPathOf("nested", "AGAPIStack",
+                "public class AGAPIStack { AGAPINode top; class Iterator { int next; } }",
+                "AGAPINode", node, "Stack", "public class Stack { }");
+
+        assertEquals(original, otherSubmission);
+        assertNotEquals(original, changedHelper);
+        assertNotEquals(original, changedNested);
+    }
+}
@@ -0,0 +1,108 @@
+package jh61b.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.function.DoubleUnaryOperator;
+
+import org.junit.jupiter.api.Test;
+
+import jh61b.utils.RuntimeInstrumentation.ComplexityType;
+
+public class ComplexityFitTest {
+    /**
+     * Returns a measurement with the times TIME(N) at the sizes 2^8 to 2^(8 + DOUBLINGS - 1).
+     */
+    private static Measurement measurement(int doublings, DoubleUnaryOperator time) {
+        Measurement measurement = new Measurement();
+        for (int n = 1 << 8; n < 1 << (8 + doublings); n *= 2) {
+            measurement.add(n, Math.round(time.applyAsDouble(n)));
+        }
+        return measurement;
+    }
+
+    private static ComplexityType classify(DoubleUnaryOperator time) {
+        return ComplexityFit.of(measurement(10, time)).getType();
+    }
+
+    @Test
+    public void classifiesExactGrowth() {
+        assertEquals(ComplexityType.CONSTANT, classify(n -> 5000));
+        assertEquals(ComplexityType.LOGARITHMIC, classify(n -> 1000 * Math.log(n)));
+        assertEquals(ComplexityType.LINEAR, classify(n -> 20 * n));
+        assertEquals(ComplexityType.LINEARITHMIC, classify(n -> 20 * n * Math.log(n)));
+        assertEquals(ComplexityType.QUADRATIC, classify(n -> 3 * n * n));
+        assertEquals(ComplexityType.CUBIC, classify(n -> n * n * n));
+        assertEquals(ComplexityType.WORSE, classify(n -> n * n * n * n / 1000));
+    }
+
+    @Test
+    public void powersBetweenTypesGoToTheClosestType() {
+        assertEquals(ComplexityType.CUBIC, classify(n -> Math.pow(n, 2.6)));
+        assertEquals(ComplexityType.QUADRATIC, classify(n -> Math.pow(n, 1.7)));
+    }
+
+    @Test
+    public void classifiesExponentialGrowth() {
+        Measurement measurement = new Measurement();
+        for (int n = 4; n <= 24; n += 2) {
+            measurement.add(n, 1L << n);
+        }
+        assertEquals(ComplexityType.EXPONENTIAL, ComplexityFit.of(measurement).getType());
+    }
+
+    @Test
+    public void ignoresAFewOutliers() {
+        // Every fourth size is disturbed, e.g. by the garbage collector
+        assertEquals(ComplexityType.LINEAR, classify(n -> Integer.numberOfTrailingZeros((int) n) % 4 == 0 ? 200 * n : 20 * n));
+        assertEquals(ComplexityType.LINEAR, classify(n -> n == 1 << 12 ? 5 : 20 * n));
+    }
+
+    @Test
+    public void shrinkingTimesAreConstant() {
+        assertEquals(ComplexityType.CONSTANT, classify(n -> 1e9 / n));
+    }
+
+    @Test
+    public void reportsTheExponentWithAConfidenceInterval() {
+        ComplexityFit fit = ComplexityFit.of(measurement(10, n -> 3 * n * n));
+
+        assertEquals(2, fit.getExponent(), 0.01);
+        assertTrue(fit.getExponentLower() <= fit.getExponent() && fit.getExponent() <= fit.getExponentUpper(), fit.toString());
+    }
+
+    @Test
+    public void givesNoisyTimesTheBenefitOfTheDoubt() {
+        // Linear times with +-30% noise, which alone could look slightly superlinear
+        double[] noise = {1.0, 1.3, 0.7, 1.2, 0.8, 1.3, 0.7, 1.1, 0.9, 1.3};
+        Measurement measurement = new Measurement();
+        for (int i = 0; i < noise.length; i++) {
+            int n = 1 << (8 + i);
+            measurement.add(n, Math.round(20 * n * noise[i]));
+        }
+        assertEquals(ComplexityType.LINEAR, ComplexityFit.of(measurement).getType());
+    }
+
+    @Test
+    public void originalTypesKeepTheirOrdinalsAndNames() {
+        assertEquals(0, ComplexityType.CONSTANT.ordinal());
+        assertEquals(1, ComplexityType.LOGARITHMIC.ordinal());
+        assertEquals(2, ComplexityType.LINEAR.ordinal());
+        assertEquals(3, ComplexityType.QUADRATIC.ordinal());
+        assertEquals(4, ComplexityType.WORSE.ordinal());
+        assertEquals("worse than quadratic", ComplexityType.WORSE.toString());
+    }
+
+    @Test
+    public void typesAreRankedByGrowth() {
+        ComplexityType[] byGrowth = {
+            ComplexityType.CONSTANT, ComplexityType.LOGARITHMIC, ComplexityType.LINEAR, ComplexityType.LINEARITHMIC,
+            ComplexityType.QUADRATIC, ComplexityType.CUBIC, ComplexityType.WORSE, ComplexityType.EXPONENTIAL,
+        };
+        for (int i = 1; i < byGrowth.length; i++) {
+            assertTrue(byGrowth[i].isSlowerThan(byGrowth[i - 1]), byGrowth[i] + " vs " + byGrowth[i - 1]);
+            assertFalse(byGrowth[i - 1].isSlowerThan(byGrowth[i]), byGrowth[i - 1] + " vs " + byGrowth[i]);
+        }
+    }
+}
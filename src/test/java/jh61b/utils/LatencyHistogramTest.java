@@ -0,0 +1,94 @@
+package jh61b.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTest {
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(10, histogram.getCount());
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        assertEquals(5, histogram.getValueAtPercentile(50));
+        assertEquals(9, histogram.getValueAtPercentile(90));
+        assertEquals(10, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void largeValuesAreWithinASixteenthOfThemselves() {
+        for (long value : new long[] {17, 1000, 123_456_789, 1L << 40, Long.MAX_VALUE / 3}) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            histogram.record(Long.MAX_VALUE);
+
+            long reported = histogram.getValueAtPercentile(50);
+            assertTrue(value <= reported && reported - value <= value / 16, value + " reported as " + reported);
+        }
+    }
+
+    @Test
+    public void percentilesRankTheRecordedValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 100; i >= 1; i--) {
+            histogram.record(i * 1000);
+        }
+
+        assertEquals(100_000, histogram.getMax());
+        long p99 = histogram.getValueAtPercentile(99);
+        assertTrue(99_000 <= p99 && p99 <= 99_000 + 99_000 / 16, Long.toString(p99));
+        long p50 = histogram.getValueAtPercentile(50);
+        assertTrue(50_000 <= p50 && p50 <= 50_000 + 50_000 / 16, Long.toString(p50));
+        assertEquals(100_000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void percentilesNeverExceedTheMaximum() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+
+        assertEquals(1000, histogram.getValueAtPercentile(50));
+        assertEquals(1000, histogram.getValueAtPercentile(99.9));
+    }
+
+    @Test
+    public void emptyHistogramsReportZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(0, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void negativeValuesAreRecordedAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void formatAndParseRoundTrip() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value : new long[] {0, 3, 3, 700, 70_000, 7_000_000_000L}) {
+            histogram.record(value);
+        }
+
+        LatencyHistogram parsed = LatencyHistogram.parse(histogram.format());
+
+        assertEquals(histogram.format(), parsed.format());
+        assertEquals(histogram.getCount(), parsed.getCount());
+        assertEquals(histogram.getMax(), parsed.getMax());
+        for (double percentile : new double[] {0, 25, 50, 75, 99, 100}) {
+            assertEquals(histogram.getValueAtPercentile(percentile), parsed.getValueAtPercentile(percentile));
+        }
+    }
+}
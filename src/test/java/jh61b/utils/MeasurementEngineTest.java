@@ -0,0 +1,92 @@
+package jh61b.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import jh61b.utils.RuntimeInstrumentation.ComplexityType;
+
+public class MeasurementEngineTest {
+    /* Prints what an older forked measurement reported its results with. */
+    public static class Forging implements ComplexityBenchmark<int[]> {
+        @Override
+        public int[] provideDSOfSize(int size) {
+            return new int[size];
+        }
+
+        @Override
+        public void functionToTest(int[] ds) {
+            System.out.println("jh61b-measurement-times: wall=0 cpu=0 rejected=0 1:1");
+        }
+    }
+
+    /* Takes about 200 ns per element of SIZE. */
+    private static void spin(int size) {
+        long end = System.nanoTime() + 200L * size;
+        while (System.nanoTime() < end) {
+            Thread.onSpinWait();
+        }
+    }
+
+    @Test
+    public void adaptiveMeasurementsStopDoublingWithinTheirBudget() {
+        long start = System.nanoTime();
+        Measurement measurement = RuntimeInstrumentation.measure(n -> n, MeasurementEngineTest::spin, 16,
+                new MeasurementOptions().adaptive(true).minIterations(2).timeBudgetNanos(1_000_000_000L));
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        int sizes = measurement.getSizes().size();
+        assertTrue(5 <= sizes && sizes < 16, measurement.getSizes().toString());
+        assertFalse(measurement.wasRuledOut());
+        assertTrue(elapsedMs < 5000, elapsedMs + " ms");
+    }
+
+    @Test
+    public void adaptiveMeasurementsStopOnceTheExpectedComplexityIsRuledOut() {
+        Measurement measurement = MeasurementEngine.measureTimes(n -> n, MeasurementEngineTest::spin, 12,
+                new MeasurementOptions().adaptive(true).minIterations(2), ComplexityType.CONSTANT);
+
+        assertTrue(measurement.wasRuledOut());
+        assertEquals(5, measurement.getSizes().size());
+        // The fit still decides what the complexity is
+        assertEquals(ComplexityType.LINEAR, RuntimeInstrumentation.classify(measurement));
+    }
+
+    @Test
+    public void samplesDisturbedByTheGarbageCollectorAreTakenAgain() {
+        MeasurementOptions options = new MeasurementOptions().iterations(3);
+
+        Measurement measurement = RuntimeInstrumentation.measure(n -> n, n -> System.gc(), 2, options);
+        Measurement kept = RuntimeInstrumentation.measure(n -> n, n -> System.gc(), 2,
+                new MeasurementOptions().iterations(3).rejectDisturbedSamples(false));
+
+        // Every sample is disturbed, so each size gives up after as many retries as samples
+        assertEquals(2, measurement.getSizes().size());
+        assertEquals(2 * 3, measurement.getRejectedSamples());
+        assertEquals(0, kept.getRejectedSamples());
+    }
+
+    @Test
+    public void forkedResultsCannotBeForgedByTheCodeUnderTest() {
+        Measurement measurement = RuntimeInstrumentation.measure(Forging.class, 3,
+                new MeasurementOptions().iterations(3).fork(true));
+
+        assertEquals(List.of(256, 512, 1024), measurement.getSizes());
+    }
+
+    @Test
+    public void resultsOfForkedMeasurementsRoundTrip() {
+        Measurement measurement = new Measurement();
+        measurement.add(100, 2_000);
+        measurement.add(200, 4_100);
+
+        Measurement parsed = MeasurementEngine.parseResult(MeasurementEngine.formatResult(measurement));
+
+        assertEquals(measurement.getSizes(), parsed.getSizes());
+        assertEquals(measurement.getTimes(), parsed.getTimes());
+    }
+}
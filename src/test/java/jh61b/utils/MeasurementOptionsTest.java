@@ -0,0 +1,66 @@
+package jh61b.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class MeasurementOptionsTest {
+    @Test
+    public void defaultsTimeEveryCallWithoutWarmUp() {
+        MeasurementOptions options = new MeasurementOptions();
+
+        assertEquals(0, options.warmupIterations);
+        assertEquals(0, options.minBatchNanos);
+        assertEquals(1, options.maxBatchSize);
+        assertFalse(options.adaptive);
+        assertFalse(options.fork);
+    }
+
+    @Test
+    public void argumentsOfAForkedJVMRoundTrip() {
+        MeasurementOptions options = new MeasurementOptions()
+                .warmupIterations(7)
+                .iterations(33)
+                .minBatchNanos(20_000)
+                .maxBatchSize(500)
+                .maxBatchBytes(1 << 20)
+                .adaptive(true)
+                .timeBudgetNanos(2_000_000_000L)
+                .minIterations(4)
+                .targetRelativeError(0.05)
+                .cpuTime(true)
+                .rejectDisturbedSamples(false);
+        List<String> args = new ArrayList<>(List.of("benchmark.Class", "12"));
+        args.addAll(options.toArgs());
+
+        MeasurementOptions parsed = MeasurementOptions.fromArgs(args.toArray(new String[0]), 2);
+
+        assertEquals(options.toArgs(), parsed.toArgs());
+        assertEquals(500, parsed.maxBatchSize);
+        assertEquals(1 << 20, parsed.maxBatchBytes);
+    }
+
+    @Test
+    public void perCallOptionsTimeEveryCallAndKeepTheRest() {
+        MeasurementOptions options = new MeasurementOptions()
+                .warmupIterations(7)
+                .iterations(33)
+                .minBatchNanos(20_000)
+                .maxBatchSize(500)
+                .cpuTime(true);
+
+        MeasurementOptions perCall = options.perCall();
+
+        assertEquals(0, perCall.minBatchNanos);
+        assertEquals(1, perCall.maxBatchSize);
+        assertEquals(7, perCall.warmupIterations);
+        assertEquals(33, perCall.iterations);
+        assertTrue(perCall.cpuTime);
+        assertEquals(20_000, options.minBatchNanos);
+    }
+}
@@ -0,0 +1,221 @@
+package jh61b.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+public class MethodEntryInstrumenterTest {
+    /**
+     * Methods whose code has loops, switches, exception handlers and uninitialized objects in
+     * the stack map frames of loops, which all have offsets that the instrumenter moves.
+     */
+    public static class Fixture {
+        public static int sum(int n) {
+            int sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += i;
+            }
+            return sum;
+        }
+
+        public static int nested(int n) {
+            int sum = 0;
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    sum += i ^ j;
+                }
+            }
+            return sum;
+        }
+
+        public static int doWhile(int n) {
+            int count = 0;
+            do {
+                count++;
+                n--;
+            } while (n > 0);
+            return count;
+        }
+
+        public static int switches(int n) {
+            int result = 0;
+            while (n-- > 0) {
+                switch (n % 4) {
+                    case 0: result += 1; break;
+                    case 1: result += 7; break;
+                    case 2: result -= 2; break;
+                    default: result *= 2;
+                }
+                switch (n * 1000) {
+                    case 0: result++; break;
+                    case 7000: result += 3; break;
+                    default:
+                }
+            }
+            return result;
+        }
+
+        public static int catches(int n) {
+            int result = 0;
+            for (int i = 0; i < n; i++) {
+                try {
+                    if (i % 3 == 0) {
+                        throw new IllegalStateException();
+                    }
+                    result += i;
+                } catch (IllegalStateException e) {
+                    result -= 1;
+                } finally {
+                    result += 2;
+                }
+            }
+            return result;
+        }
+
+        public static String builders(int n) {
+            List<Object> builders = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                builders.add(new StringBuilder(i % 2 == 0 ? "a" : "b").append(i));
+            }
+            return builders.toString();
+        }
+
+        public static int recurse(int n) {
+            return n <= 0 ? 0 : 1 + recurse(n - 1);
+        }
+
+        public static int fail(int n) {
+            throw new IllegalArgumentException("at a known line " + n);
+        }
+    }
+
+    /* A class without code, which the instrumenter leaves alone. */
+    public interface NoCode {
+        void run();
+    }
+
+    /**
+     * Loads the instrumented Fixture in a class loader of its own. Classes from such a loader are
+     * verified, so the rewritten code must pass the verifier to load at all.
+     */
+    private static Class<?> instrumentedFixture() throws IOException, ClassNotFoundException {
+        byte[] instrumented = MethodEntryInstrumenter.instrument(classFile(Fixture.class));
+        assertNotNull(instrumented);
+        ClassLoader loader = new ClassLoader(MethodEntryInstrumenterTest.class.getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+                if (!name.equals(Fixture.class.getName())) {
+                    return super.loadClass(name, resolve);
+                }
+                synchronized (getClassLoadingLock(name)) {
+                    Class<?> loaded = findLoadedClass(name);
+                    return loaded != null ? loaded : defineClass(name, instrumented, 0, instrumented.length);
+                }
+            }
+        };
+        return Class.forName(Fixture.class.getName(), true, loader);
+    }
+
+    private static byte[] classFile(Class<?> c) throws IOException {
+        String name = c.getName().substring(c.getName().lastIndexOf('.') + 1) + ".class";
+        try (InputStream in = c.getResourceAsStream(name)) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Calls the method NAME of FIXTURE with the argument N, and returns its result and the number
+     * of operations it counted.
+     */
+    private static Object call(Class<?> fixture, String name, int n, AtomicLong operations) throws Exception {
+        Method method = fixture.getMethod(name, int.class);
+        long before = OperationCounter.get();
+        try {
+            return method.invoke(null, n);
+        } catch (InvocationTargetException e) {
+            throw (Exception) e.getCause();
+        } finally {
+            operations.set(OperationCounter.get() - before);
+        }
+    }
+
+    @Test
+    public void countsMethodEntriesAndLoopIterations() throws Exception {
+        Class<?> fixture = instrumentedFixture();
+        AtomicLong operations = new AtomicLong();
+
+        assertEquals(45, call(fixture, "sum", 10, operations));
+        assertEquals(1 + 10, operations.get());
+        call(fixture, "nested", 10, operations);
+        assertEquals(1 + 10 + 10 * 10, operations.get());
+        // The condition at the end of the loop counts whether or not it jumps back
+        call(fixture, "doWhile", 10, operations);
+        assertEquals(1 + 10, operations.get());
+        call(fixture, "recurse", 10, operations);
+        assertEquals(11, operations.get());
+    }
+
+    @Test
+    public void instrumentedMethodsReturnWhatTheOriginalsReturn() throws Exception {
+        Class<?> fixture = instrumentedFixture();
+        AtomicLong operations = new AtomicLong();
+
+        for (int n : new int[] {0, 1, 5, 17}) {
+            assertEquals(Fixture.sum(n), call(fixture, "sum", n, operations));
+            assertEquals(Fixture.nested(n), call(fixture, "nested", n, operations));
+            assertEquals(Fixture.doWhile(n), call(fixture, "doWhile", n, operations));
+            assertEquals(Fixture.switches(n), call(fixture, "switches", n, operations));
+            assertEquals(Fixture.catches(n), call(fixture, "catches", n, operations));
+            assertEquals(Fixture.builders(n), call(fixture, "builders", n, operations));
+        }
+    }
+
+    @Test
+    public void exceptionsKeepTheirLineNumbers() throws Exception {
+        Class<?> fixture = instrumentedFixture();
+        int expectedLine = -1;
+        try {
+            Fixture.fail(1);
+        } catch (IllegalArgumentException e) {
+            expectedLine = e.getStackTrace()[0].getLineNumber();
+        }
+
+        try {
+            call(fixture, "fail", 1, new AtomicLong());
+        } catch (IllegalArgumentException e) {
+            assertEquals(expectedLine, e.getStackTrace()[0].getLineNumber());
+            return;
+        }
+        throw new AssertionError("The instrumented fail did not throw");
+    }
+
+    @Test
+    public void leavesClassesWithoutCodeAlone() throws IOException {
+        assertNull(MethodEntryInstrumenter.instrument(classFile(NoCode.class)));
+    }
+
+    @Test
+    public void countsOnlyTheCallingThread() throws InterruptedException {
+        long before = OperationCounter.get();
+        Thread other = new Thread(() -> {
+            for (int i = 0; i < 100; i++) {
+                OperationCounter.count();
+            }
+        });
+        other.start();
+        other.join();
+        OperationCounter.count();
+
+        assertEquals(1, OperationCounter.get() - before);
+    }
+}
@@ -0,0 +1,62 @@
+package jh61b.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class ObjectGraphSizeTest {
+    private static class Node {
+        int item;
+        Node next;
+    }
+
+    private static final long NODE_SIZE = ObjectGraphSize.of(new Node());
+
+    @Test
+    public void primitiveArraysCountTheirElements() {
+        long size = ObjectGraphSize.of(new int[1000]);
+
+        assertTrue(4000 < size && size <= 4000 + 32, size + " bytes");
+        assertEquals(0, size % 8);
+        assertEquals(8 * 1000, ObjectGraphSize.of(new long[2000]) - ObjectGraphSize.of(new long[1000]));
+        assertEquals(0, ObjectGraphSize.of(null));
+    }
+
+    @Test
+    public void arraysOfReferencesCountWhatTheyReferenceOnce() {
+        Node shared = new Node();
+        long empty = ObjectGraphSize.of(new Node[2]);
+
+        assertEquals(empty + NODE_SIZE, ObjectGraphSize.of(new Node[] {shared, shared}));
+        assertEquals(empty + 2 * NODE_SIZE, ObjectGraphSize.of(new Node[] {shared, new Node()}));
+    }
+
+    @Test
+    public void cyclesAreCountedOnce() {
+        Node self = new Node();
+        self.next = self;
+        Node first = new Node();
+        Node second = new Node();
+        first.next = second;
+        second.next = first;
+        Object[] array = new Object[1];
+        array[0] = array;
+
+        assertEquals(NODE_SIZE, ObjectGraphSize.of(self));
+        assertEquals(2 * NODE_SIZE, ObjectGraphSize.of(first));
+        assertEquals(ObjectGraphSize.of(new Object[1]), ObjectGraphSize.of(array));
+    }
+
+    @Test
+    public void longChainsDoNotOverflowTheStack() {
+        Node head = null;
+        for (int i = 0; i < 1_000_000; i++) {
+            Node node = new Node();
+            node.next = head;
+            head = node;
+        }
+
+        assertEquals(1_000_000 * NODE_SIZE, ObjectGraphSize.of(head));
+    }
+}
@@ -0,0 +1,85 @@
+package jh61b.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PerformanceLimitsGeneratorTest {
+    @TempDir
+    Path directory;
+
+    /* A reference whose "delta" is always -10 and whose "time" is 1, 2, ..., 10 in turn, ten times the test ID. */
+    private static PerformanceLimitsGenerator.Reference cycling() {
+        int[] calls = {0};
+        return testID -> new double[] {-10, testID * 10 * (calls[0]++ % 10 + 1)};
+    }
+
+    private static PerformanceLimitsGenerator generator(PerformanceLimitsGenerator.Reference reference) {
+        return new PerformanceLimitsGenerator(new String[] {"delta", "time"}, new double[] {1}, reference)
+                .runs(10).warmupRuns(0);
+    }
+
+    @Test
+    public void boundsMoveOutwardsWhateverTheirSign() {
+        double[][] table = generator(cycling()).slack(2).table();
+
+        assertArrayEquals(new double[] {1, -20, -5, 5, 200}, table[0], 1e-9);
+    }
+
+    @Test
+    public void fieldsCanHaveSlackOfTheirOwn() {
+        double[][] table = generator(cycling()).slack(2).slack("time", 4).table();
+
+        assertArrayEquals(new double[] {1, -20, -5, 2.5, 400}, table[0], 1e-9);
+    }
+
+    @Test
+    public void percentilesIgnoreOutliers() {
+        double[][] table = generator(cycling()).slack(1).percentiles(10, 90).table();
+
+        assertArrayEquals(new double[] {1, -10, -10, 10, 90}, table[0], 1e-9);
+    }
+
+    @Test
+    public void warmUpRunsAreNotCounted() {
+        int[] calls = {0};
+        double[][] table = generator(testID -> new double[] {0, calls[0]++ < 2 ? 1000 : 1})
+                .warmupRuns(2).slack(1).table();
+
+        assertEquals(1, table[0][4], 0);
+    }
+
+    @Test
+    public void writtenLimitsCanBeLoaded() {
+        String filename = directory.resolve("limits/limits.json").toString();
+        generator(cycling()).slack(2).write(filename);
+
+        ProgramPerformanceLimits ppl = ProgramPerformanceLimits.load(filename);
+
+        assertArrayEquals(new String[] {"delta", "time"}, ppl.getFieldNames());
+        assertTrue(ppl.obeysLimits(1, "delta", -19));
+        assertFalse(ppl.obeysLimits(1, "delta", -4));
+        assertTrue(ppl.obeysLimits(1, "time", 150));
+        assertFalse(ppl.obeysLimits(1, "time", 300));
+    }
+
+    @Test
+    public void rejectsInvalidSettings() {
+        PerformanceLimitsGenerator generator = generator(cycling());
+
+        assertThrows(IllegalArgumentException.class, () -> generator.runs(0));
+        assertThrows(IllegalArgumentException.class, () -> generator.warmupRuns(-1));
+        assertThrows(IllegalArgumentException.class, () -> generator.percentiles(90, 10));
+        assertThrows(IllegalArgumentException.class, () -> generator.percentiles(0, 101));
+        assertThrows(IllegalArgumentException.class, () -> generator.slack(0.5));
+        assertThrows(IllegalArgumentException.class, () -> generator.slack("time", Double.NaN));
+        assertThrows(IllegalStateException.class, () -> generator(testID -> new double[] {1}).table());
+    }
+}
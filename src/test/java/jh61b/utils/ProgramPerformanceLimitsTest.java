@@ -0,0 +1,140 @@
+package jh61b.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import jh61b.utils.ProgramPerformanceLimits.Interpolation;
+
+public class ProgramPerformanceLimitsTest {
+    @TempDir
+    Path directory;
+
+    private ProgramPerformanceLimits load(String filename, String contents) throws IOException {
+        Path file = directory.resolve(filename);
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+        return ProgramPerformanceLimits.load(file.toString());
+    }
+
+    /* Operations that grow linearly at the lower bound and quadratically at the upper bound. */
+    private static ProgramPerformanceLimits sweep(Interpolation interpolation) {
+        ProgramPerformanceLimits ppl = new ProgramPerformanceLimits(new String[] {"ops"},
+                new double[][] {{10, 1, 100}, {1000, 100, 1_000_000}});
+        ppl.setInterpolation(interpolation);
+        return ppl;
+    }
+
+    @Test
+    public void loadsCSV() throws IOException {
+        ProgramPerformanceLimits ppl = load("limits.csv",
+                "# Limits for the union-find assignment\n"
+                + "N, time_min, time_max, union_min, union_max\n"
+                + "\n"
+                + "8, 0, 100, 10, 1500\n"
+                + "32,0,100,150,15000\n");
+
+        assertArrayEquals(new double[] {8, 32}, ppl.getTestIDs(), 0);
+        assertEquals("time", ppl.getFieldNames()[0]);
+        assertEquals("union", ppl.getFieldNames()[1]);
+        assertTrue(ppl.obeysLimits(32, "union", 15_000));
+        assertFalse(ppl.obeysLimits(8, "union", 5));
+        assertEquals(Interpolation.NONE, ppl.getInterpolation());
+    }
+
+    @Test
+    public void loadsJSON() throws IOException {
+        ProgramPerformanceLimits ppl = load("limits.json",
+                "{\"fields\": [\"time\", \"union\"],"
+                + " \"limits\": [[8, 0, 100, 10, 1500], [32, 0, 100, 150, 15000]],"
+                + " \"interpolation\": \"LOG_LOG\"}");
+
+        assertArrayEquals(new double[] {8, 32}, ppl.getTestIDs(), 0);
+        assertEquals(Interpolation.LOG_LOG, ppl.getInterpolation());
+        assertTrue(ppl.obeysLimits(8, "union", 1500));
+        assertTrue(ppl.testExists(16, "union"));
+    }
+
+    @Test
+    public void rejectsMalformedFiles() {
+        assertThrows(IllegalArgumentException.class, () -> load("header.csv", "N,time_min,union_max\n8,0,100\n"));
+        assertThrows(IllegalArgumentException.class, () -> load("columns.csv", "N,time_min,time_max\n8,0\n"));
+        assertThrows(IllegalArgumentException.class, () -> load("number.csv", "N,time_min,time_max\n8,0,lots\n"));
+        assertThrows(IllegalArgumentException.class, () -> load("empty.csv", "# nothing here\n"));
+        assertThrows(IllegalArgumentException.class, () -> load("rows.csv", "N,time_min,time_max\n"));
+        assertThrows(IllegalArgumentException.class, () -> load("fields.json", "{\"limits\": [[8, 0, 100]]}"));
+        assertThrows(IllegalArgumentException.class, () -> load("broken.json", "{\"fields\": [\"time\"], "));
+    }
+
+    @Test
+    public void findsIDsComputedInFloatingPoint() {
+        ProgramPerformanceLimits ppl = new ProgramPerformanceLimits(new String[] {"ops"},
+                new double[][] {{0.1, 0, 10}, {0.3, 0, 30}});
+
+        assertTrue(ppl.testExists(0.1 + 0.2, "ops"));
+        assertTrue(ppl.obeysLimits(0.1 + 0.2, "ops", 30));
+        assertFalse(ppl.testExists(0.2, "ops"));
+        assertFalse(ppl.testExists(0.3, "time"));
+    }
+
+    @Test
+    public void withoutInterpolationOnlyRowsExist() {
+        ProgramPerformanceLimits ppl = sweep(Interpolation.NONE);
+
+        assertTrue(ppl.testExists(10, "ops"));
+        assertFalse(ppl.testExists(100, "ops"));
+        assertThrows(RuntimeException.class, () -> ppl.obeysLimits(100, "ops", 50));
+    }
+
+    @Test
+    public void interpolatesLinearly() {
+        ProgramPerformanceLimits ppl = sweep(Interpolation.LINEAR);
+
+        assertTrue(ppl.testExists(505, "ops"));
+        assertTrue(ppl.obeysLimits(505, "ops", 500_050));
+        assertFalse(ppl.obeysLimits(505, "ops", 600_000));
+        assertTrue(ppl.obeysLimits(505, "ops", 50.5));
+        assertFalse(ppl.obeysLimits(505, "ops", 40));
+    }
+
+    @Test
+    public void interpolatesOnALogLogScale() {
+        ProgramPerformanceLimits ppl = sweep(Interpolation.LOG_LOG);
+
+        // At N = 100 the bounds are 100^1 / 10 = 10 and 100^2 = 10000
+        assertTrue(ppl.obeysLimits(100, "ops", 10));
+        assertTrue(ppl.obeysLimits(100, "ops", 10_000));
+        assertFalse(ppl.obeysLimits(100, "ops", 5));
+        // Not 10001, which reportString rounds to (1.0x) and so lets pass
+        assertFalse(ppl.obeysLimits(100, "ops", 11_000));
+        assertEquals("(1.1x)", ppl.reportString(100, "ops", 11_000).trim());
+    }
+
+    @Test
+    public void logLogInterpolatesBoundsOfZeroLinearly() {
+        ProgramPerformanceLimits ppl = new ProgramPerformanceLimits(new String[] {"time"},
+                new double[][] {{10, 0, 100}, {1000, 0, 1_000_000}});
+        ppl.setInterpolation(Interpolation.LOG_LOG);
+
+        assertTrue(ppl.obeysLimits(100, "time", 0));
+        assertFalse(ppl.obeysLimits(100, "time", -1));
+        assertTrue(ppl.obeysLimits(100, "time", 10_000));
+    }
+
+    @Test
+    public void interpolationStopsAtTheEndsOfTheTable() {
+        ProgramPerformanceLimits ppl = sweep(Interpolation.LOG_LOG);
+
+        assertFalse(ppl.testExists(5, "ops"));
+        assertFalse(ppl.testExists(2000, "ops"));
+    }
+}
@@ -0,0 +1,38 @@
+package jh61b.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class ReferenceComparisonTest {
+    private static final MeasurementOptions OPTIONS = new MeasurementOptions().iterations(20);
+
+    /* Takes about NANOSPERELEMENT ns per element of SIZE. */
+    private static void spin(int size, long nanosPerElement) {
+        long end = System.nanoTime() + nanosPerElement * size;
+        while (System.nanoTime() < end) {
+            Thread.onSpinWait();
+        }
+    }
+
+    @Test
+    public void comparesMediansAtOneSize() {
+        ReferenceComparison comparison = RuntimeInstrumentation.compareToReference(
+                n -> n, n -> spin(n, 400), n -> n, n -> spin(n, 100), 256, OPTIONS);
+
+        assertEquals(256, comparison.getSize());
+        assertTrue(2.5 < comparison.getRatio() && comparison.getRatio() < 6, comparison.toString());
+    }
+
+    @Test
+    public void failsStudentsTooFarBehindTheReference() {
+        RuntimeInstrumentation.assertWithinRatioOfReference("spin", 10,
+                n -> n, n -> spin(n, 400), n -> n, n -> spin(n, 100), 256, OPTIONS);
+        AssertionError failure = assertThrows(AssertionError.class, () -> RuntimeInstrumentation.assertWithinRatioOfReference(
+                "spin", 2, n -> n, n -> spin(n, 400), n -> n, n -> spin(n, 100), 256, OPTIONS));
+        assertTrue(failure.getMessage().startsWith("spin is expected to take at most 2.00 times as long as the reference solution."),
+                failure.getMessage());
+    }
+}